@@ -0,0 +1,162 @@
+package src;
+// ActiveRenderer.java
+
+import java.awt.Canvas;
+import java.awt.DisplayMode;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A canvas drawn by its own render thread through a page-flipping
+ * {@link BufferStrategy}, instead of waiting for Swing to coalesce repaint
+ * requests on the EDT. Frames are paced to the refresh rate of the screen
+ * the canvas is on (or {@code -Dtetris.fps}); where the pipeline flips on
+ * vertical blank, {@code show()} locks to it as well.
+ *
+ * The painter runs on the render thread, so everything it reads must be
+ * safe to read off the EDT. The strategy dies with the native peer (e.g.
+ * when the window is rebuilt for fullscreen) and is recreated on the first
+ * frame after the canvas is displayable again.
+ */
+public class ActiveRenderer extends Canvas {
+    private static final long serialVersionUID = 1L;
+
+    /** Draws one frame onto a width x height surface. */
+    public interface Painter {
+        void paint(Graphics2D g, int width, int height);
+    }
+
+    private final Painter painter;
+    private final Object peerLock = new Object();   // strategy vs. peer teardown
+    private BufferStrategy strategy;                // render thread, under peerLock
+    private long frameNanos;
+    private volatile boolean running;
+    private volatile long frames;
+    private Thread thread;
+
+    public ActiveRenderer(Painter painter) {
+        this.painter = painter;
+        setIgnoreRepaint(true);
+        setFocusable(false);
+    }
+
+    /** Start the render thread; frames begin once the canvas is on screen. */
+    public void start() {
+        if (running)
+            return;
+        running = true;
+        thread = new Thread(this::run, "render");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stop the render thread and wait for it to exit. */
+    public void stop() {
+        running = false;
+        Thread t = thread;
+        if (t == null || t == Thread.currentThread())
+            return;
+        LockSupport.unpark(t);
+        boolean interrupted = false;
+        while (t.isAlive()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Frames shown since start. */
+    public long getFrames() {
+        return frames;
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        while (running) {
+            if (!drawFrame())
+                frameNanos = 0;     // not on screen; look the rate up again later
+            long period = frameNanos > 0 ? frameNanos : 1_000_000_000L / 60;
+            next += period;
+            long now = System.nanoTime();
+            if (now - next > period)
+                next = now;         // fell behind: don't sprint to catch up
+            while (running && (now = System.nanoTime()) < next)
+                LockSupport.parkNanos(next - now);
+        }
+        synchronized (peerLock) {
+            if (strategy != null)
+                strategy.dispose();
+            strategy = null;
+        }
+    }
+
+    /** Render and show one frame; false if the canvas can't be drawn on yet. */
+    private boolean drawFrame() {
+        synchronized (peerLock) {
+            int w = getWidth(), h = getHeight();
+            if (!isDisplayable() || w <= 0 || h <= 0)
+                return false;
+            if (strategy == null) {
+                createBufferStrategy(2);
+                strategy = getBufferStrategy();
+                frameNanos = 1_000_000_000L / refreshRate();
+            }
+            do {
+                do {
+                    Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+                    try {
+                        painter.paint(g, w, h);
+                    } finally {
+                        g.dispose();
+                    }
+                } while (strategy.contentsRestored());
+                strategy.show();
+            } while (strategy.contentsLost());
+        }
+        // push the flip out now rather than whenever the pipeline flushes
+        Toolkit.getDefaultToolkit().sync();
+        frames++;
+        return true;
+    }
+
+    private int refreshRate() {
+        Integer fps = Integer.getInteger("tetris.fps");
+        if (fps != null && fps > 0)
+            return fps;
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        int hz = gc != null ? gc.getDevice().getDisplayMode().getRefreshRate() : 0;
+        return hz != DisplayMode.REFRESH_RATE_UNKNOWN ? hz : 60;
+    }
+
+    @Override
+    public void removeNotify() {
+        // the strategy's buffers belong to the peer being destroyed
+        synchronized (peerLock) {
+            if (strategy != null)
+                strategy.dispose();
+            strategy = null;
+            super.removeNotify();
+        }
+    }
+
+    // the render thread owns the pixels; AWT repaints would only clear them
+    @Override
+    public void paint(Graphics g) {
+    }
+
+    @Override
+    public void update(Graphics g) {
+    }
+}
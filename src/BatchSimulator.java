@@ -0,0 +1,254 @@
+package src;
+// BatchSimulator.java
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays seeded {@link Bot}-vs-{@link Bot} wacky-mode matches as fast as the
+ * CPU allows, for tuning {@link Rules} and catching behaviour changes. Each
+ * worker thread owns one engine and two bots and claims match numbers from
+ * a shared counter; its totals stay private until the batch ends and they
+ * are merged, so workers share nothing they write and throughput grows
+ * with cores.
+ *
+ * Match n always gets the same seed for the same base seed, so two rule
+ * sets run on the same base seed face identical piece sequences, and the
+ * outcome hash (of every match's final state) changes exactly when some
+ * match played out differently.
+ */
+public class BatchSimulator {
+    /** Matches still running after this long are called a draw. */
+    public static final long DEFAULT_MAX_TICKS = 15L * 60 * GameEngine.TICK_RATE;
+    /**
+     * Gravity goes up a level this often. Bots never tire, so without it
+     * most matches between them run until the draw limit.
+     */
+    public static final long LEVEL_TICKS = 30L * GameEngine.TICK_RATE;
+    public static final int BOT_ACT_EVERY = 4;
+    public static final int BOT_HARD_DROP_PERCENT = 20;
+
+    /** Totals for a batch. Each worker fills its own, then they are merged. */
+    public static final class Stats {
+        long games, p1Wins, p2Wins, draws;
+        long merges, detonations, lines;
+        long score1, score2;
+        long outcomeHash;
+        long longestTicks = -1, longestSeed;
+        int[] lengths = new int[256];       // ticks per match, unordered
+        long nanos;
+
+        // per-match counters, fed by the worker's engine listener
+        private int matchMerges, matchDetonations, matchLines;
+
+        private void finish(int match, GameEngine engine) {
+            games++;
+            int w = engine.getWinner();
+            if (w == 1)
+                p1Wins++;
+            else if (w == 2)
+                p2Wins++;
+            else
+                draws++;
+            merges += matchMerges;
+            detonations += matchDetonations;
+            lines += matchLines;
+            matchMerges = matchDetonations = matchLines = 0;
+            score1 += engine.getPlayer(1).getScore();
+            score2 += engine.getPlayer(2).getScore();
+            long ticks = engine.getTickCount();
+            if (ticks > longestTicks) {
+                longestTicks = ticks;
+                longestSeed = engine.getSeed();
+            }
+            if (games > lengths.length)
+                lengths = Arrays.copyOf(lengths, lengths.length * 2);
+            lengths[(int) games - 1] = (int) ticks;
+            // summed, so the order workers finish in doesn't matter
+            outcomeHash += GameEngine.mix(match, engine.stateHash());
+        }
+
+        private void merge(Stats o) {
+            int n = (int) games;
+            games += o.games;
+            p1Wins += o.p1Wins;
+            p2Wins += o.p2Wins;
+            draws += o.draws;
+            merges += o.merges;
+            detonations += o.detonations;
+            lines += o.lines;
+            score1 += o.score1;
+            score2 += o.score2;
+            outcomeHash += o.outcomeHash;
+            if (o.longestTicks > longestTicks) {
+                longestTicks = o.longestTicks;
+                longestSeed = o.longestSeed;
+            }
+            if (lengths.length < games)
+                lengths = Arrays.copyOf(lengths, (int) games);
+            System.arraycopy(o.lengths, 0, lengths, n, (int) o.games);
+        }
+
+        /** Match length in seconds that fraction q of matches stayed within. */
+        public double lengthPercentile(double q) {
+            if (games == 0)
+                return 0;
+            int[] sorted = Arrays.copyOf(lengths, (int) games);
+            Arrays.sort(sorted);
+            int i = (int) Math.min(games - 1, Math.max(0, Math.ceil(q * games) - 1));
+            return sorted[i] / (double) GameEngine.TICK_RATE;
+        }
+
+        public double gamesPerSecond() {
+            return nanos > 0 ? games * 1e9 / nanos : 0;
+        }
+
+        public long getGames() {
+            return games;
+        }
+
+        public long getOutcomeHash() {
+            return outcomeHash;
+        }
+
+        /** Human-readable summary, one fact per line. */
+        public String report() {
+            double g = Math.max(1, games);
+            return String.format("  wins: p1 %.1f%%, p2 %.1f%%, draws %.1f%%%n", 100 * p1Wins / g,
+                    100 * p2Wins / g, 100 * draws / g)
+                    + String.format("  per match: %.2f merges, %.2f detonations, %.1f lines;"
+                            + " score p1 %.0f, p2 %.0f%n", merges / g, detonations / g, lines / g,
+                            score1 / g, score2 / g)
+                    + String.format("  length: p10 %.0f s, median %.0f s, p90 %.0f s, longest %.0f s (seed %d)%n",
+                            lengthPercentile(0.1), lengthPercentile(0.5), lengthPercentile(0.9),
+                            longestTicks / (double) GameEngine.TICK_RATE, longestSeed)
+                    + String.format("  outcome hash %016x", outcomeHash);
+        }
+    }
+
+    private final int cols, rows;
+    private final Rules rules;
+    private long maxTicks = DEFAULT_MAX_TICKS;
+
+    public BatchSimulator(int cols, int rows, Rules rules) {
+        this.cols = cols;
+        this.rows = rows;
+        this.rules = rules;
+    }
+
+    public void setMaxTicks(long maxTicks) {
+        this.maxTicks = maxTicks;
+    }
+
+    /** Seed of match n in a batch with the given base seed. */
+    public static long matchSeed(long baseSeed, int n) {
+        return GameEngine.mix(baseSeed, n);
+    }
+
+    /** Play matches 0..games-1 on threads workers and return the merged totals. */
+    public Stats run(long baseSeed, int games, int threads) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        Stats[] parts = new Stats[threads];
+        Thread[] workers = new Thread[threads];
+        long t0 = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            Stats s = parts[i] = new Stats();
+            workers[i] = new Thread(() -> play(next, games, baseSeed, s), "batch-" + i);
+            workers[i].start();
+        }
+        for (Thread t : workers)
+            t.join();
+        Stats total = parts[0];
+        for (int i = 1; i < threads; i++)
+            total.merge(parts[i]);
+        total.nanos = System.nanoTime() - t0;
+        return total;
+    }
+
+    private void play(AtomicInteger next, int games, long baseSeed, Stats s) {
+        GameEngine engine = new GameEngine(cols, rows, true, baseSeed);
+        engine.setRules(rules);
+        engine.setListener(new GameListener() {
+            @Override
+            public void onLock(int playerId, int lines, boolean hardDrop, List<Point> tiles) {
+                s.matchLines += lines;
+            }
+
+            @Override
+            public void onMerge(int winnerId, int mergeCount) {
+                s.matchMerges++;
+            }
+
+            @Override
+            public void onDetonation(int x, int y) {
+                s.matchDetonations++;
+            }
+        });
+        Bot b1 = new Bot(1, 0, BOT_ACT_EVERY, BOT_HARD_DROP_PERCENT);
+        Bot b2 = new Bot(2, 0, BOT_ACT_EVERY, BOT_HARD_DROP_PERCENT);
+        for (int n; (n = next.getAndIncrement()) < games;) {
+            long seed = matchSeed(baseSeed, n);
+            engine.reset(seed);
+            b1.reset(seed);
+            b2.reset(seed);
+            engine.setGravity(GameEngine.gravityForLevel(1));
+            while (!engine.isOver() && engine.getTickCount() < maxTicks) {
+                long t = engine.getTickCount();
+                if (t > 0 && t % LEVEL_TICKS == 0)
+                    engine.setGravity(GameEngine.gravityForLevel(1 + (int) (t / LEVEL_TICKS)));
+                long c = b1.next(engine);
+                if (c != 0)
+                    engine.apply(c);
+                c = b2.next(engine);
+                if (c != 0)
+                    engine.apply(c);
+                engine.tick();
+            }
+            s.finish(n, engine);
+        }
+    }
+
+    // ─── Command line ─────────────────────────────────────────
+
+    /**
+     * {@code java src.BatchSimulator [games] [threads|scale] [rules...]}:
+     * play games matches (default 1000) under each rule set (default
+     * {@link Rules#DEFAULT}) on the same seeds and print the stats side by
+     * side. "scale" instead times the first rule set on 1, 2, 4... threads
+     * up to the core count. -Dtetris.batch.seed sets the base seed.
+     */
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        boolean scale = args.length > 1 && args[1].equals("scale");
+        int threads = args.length > 1 && !scale ? Integer.parseInt(args[1]) : cores;
+        long seed = Long.getLong("tetris.batch.seed", 1);
+        Rules[] variants = new Rules[Math.max(1, args.length - 2)];
+        variants[0] = Rules.DEFAULT;
+        for (int i = 2; i < args.length; i++)
+            variants[i - 2] = Rules.parse(args[i]);
+
+        if (scale) {
+            BatchSimulator sim = new BatchSimulator(10, 40, variants[0]);
+            double one = 0;
+            for (int t = 1; ; t = Math.min(t * 2, cores)) {
+                Stats s = sim.run(seed, games, t);
+                if (t == 1)
+                    one = s.gamesPerSecond();
+                System.out.printf("%3d threads: %8.1f games/s, %.2fx one thread%n",
+                        t, s.gamesPerSecond(), s.gamesPerSecond() / one);
+                if (t == cores)
+                    break;
+            }
+            return;
+        }
+
+        System.out.printf("%d matches per rule set, %d threads, base seed %d%n", games, threads, seed);
+        for (Rules r : variants) {
+            Stats s = new BatchSimulator(10, 40, r).run(seed, games, threads);
+            System.out.printf("%s: %.1f s, %.1f games/s%n%s%n", r, s.nanos / 1e9, s.gamesPerSecond(), s.report());
+        }
+    }
+}
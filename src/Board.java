@@ -2,48 +2,144 @@ package src;
 // Board.java
 
 import java.awt.Point;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Logical game board: tracks empty cells and fixed pieces.
+ * Alongside the cell grid, each player has a row-major occupancy
+ * bitboard for collision tests and per-row fill counters so full-line
+ * detection never rescans a row.
  */
 public class Board {
     private final int width, height;
-    private final Cell[][] cells;
+    // Cells are packed shorts (see Cell.pack) stored by physical row at
+    // cells[row * width + x]; rowMap maps a logical y to its row so line
+    // clears compact the board by permuting indices, not data.
+    private final short[] cells;
+    private final Cell view = new Cell();   // flyweight handed out by getCell
+    private final int[] rowMap;
+    private final int[] scratch;        // cleared physical rows during compaction
     public static final int TILE_SIZE = 26;
 
+    // Occupancy bitboards: owners[id][row * words + w], bit x%64 of word x/64
+    private final int words;            // longs per row
+    private final long[][] owners;      // index 1 = player 1, 2 = player 2
+
+    // Per-row fill counters: filled[id][row] = cells owned by id in that row,
+    // fullRows[id] = how many of id's rows are currently complete
+    private final int[][] filled;
+    private final int[] fullRows = new int[3];
+
+    // Column skylines: for player 1 (falling down) the topmost owned y per
+    // column, or height; for player 2 (falling up) the bottommost, or -1.
+    // Additions update them in place, removals mark them stale.
+    private final int[][] skyline;
+    private final boolean[] skylineStale = new boolean[3];
+
+    private final BoardJournal journal;
+
     public Board(int width, int height) {
         this.width = width;
         this.height = height;
-        this.cells = new Cell[width][height];
+        this.cells = new short[width * height];
+        this.rowMap = new int[height];
+        this.scratch = new int[height];
+        this.words = (width + 63) >>> 6;
+        this.owners = new long[3][height * words];
+        this.filled = new int[3][height];
+        this.skyline = new int[3][width];
+        this.journal = new BoardJournal(height);
         clear();
     }
 
-    /** Initialize all cells to EMPTY. */
+    /** Reset all cells to EMPTY. */
     public void clear() {
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                cells[x][y] = new Cell();
-            }
+        for (int y = 0; y < height; y++) {
+            rowMap[y] = y;
         }
+        Arrays.fill(cells, Cell.EMPTY);
+        Arrays.fill(owners[1], 0L);
+        Arrays.fill(owners[2], 0L);
+        Arrays.fill(filled[1], 0);
+        Arrays.fill(filled[2], 0);
+        fullRows[1] = fullRows[2] = 0;
+        Arrays.fill(skyline[1], height);
+        Arrays.fill(skyline[2], -1);
+        skylineStale[1] = skylineStale[2] = false;
+        journal.reset();
     }
 
+    /** Change log that renderers, bots and sync code can follow. */
+    public BoardJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Unpacked view of (x,y). The returned Cell is shared and is overwritten
+     * by the next call; use {@link #getCell(int, int, Cell)} to keep a copy.
+     */
     public Cell getCell(int x, int y) {
-        return cells[x][y];
+        return view.load(getPacked(x, y));
+    }
+
+    /** Unpack (x,y) into a caller-owned Cell. */
+    public Cell getCell(int x, int y, Cell into) {
+        return into.load(getPacked(x, y));
+    }
+
+    /** Copy logical row y's packed cells into dst starting at off. */
+    public void copyRow(int y, short[] dst, int off) {
+        System.arraycopy(cells, rowMap[y] * width, dst, off, width);
+    }
+
+    /** Raw packed value of (x,y); decode with the static Cell helpers. */
+    public short getPacked(int x, int y) {
+        return cells[rowMap[y] * width + x];
+    }
+
+    public boolean isFixed(int x, int y)  { return Cell.isFixed(getPacked(x, y)); }
+    public int getOwnerId(int x, int y)   { return Cell.ownerOf(getPacked(x, y)); }
+    public int getShapeId(int x, int y)   { return Cell.shapeOf(getPacked(x, y)); }
+    public int getMergeCount(int x, int y) { return Cell.mergeOf(getPacked(x, y)); }
+
+    /** True if (x,y) is a fixed cell owned by this player. */
+    public boolean isOccupied(int x, int y, int playerId) {
+        return (owners[playerId][rowMap[y] * words + (x >>> 6)] & (1L << x)) != 0;
     }
 
     /**
      * True if any tile is out-of-bounds or on this player's fixed cells.
      */
     public boolean isCollision(List<Point> tiles, int playerId) {
-        for (Point p : tiles) {
+        long[] occ = owners[playerId];
+        for (int i = 0, n = tiles.size(); i < n; i++) {
+            Point p = tiles.get(i);
             int x = p.x, y = p.y;
             if (x < 0 || x >= width || y < 0 || y >= height) {
                 return true;
             }
-            Cell c = cells[x][y];
-            if (c.getState() == Cell.State.FIXED && c.getOwnerId() == playerId) {
+            if ((occ[rowMap[y] * words + (x >>> 6)] & (1L << x)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * True if piece, displaced by (dx,dy), would leave the board or overlap
+     * this player's fixed cells. Reads the piece's int state directly, so
+     * candidate positions can be tested without building a new piece.
+     */
+    public boolean isCollision(Tetramino piece, int dx, int dy, int playerId) {
+        long[] occ = owners[playerId];
+        for (int i = 0, n = piece.size(); i < n; i++) {
+            int x = piece.tileX(i) + dx, y = piece.tileY(i) + dy;
+            if (x < 0 || x >= width || y < 0 || y >= height) {
+                return true;
+            }
+            if ((occ[rowMap[y] * words + (x >>> 6)] & (1L << x)) != 0) {
                 return true;
             }
         }
@@ -52,96 +148,306 @@ public class Board {
 
     /** Stamp a piece in place as FIXED. */
     public void fixPiece(List<Point> tiles, int ownerId, int shapeId) {
-        for (Point p : tiles) {
-            Cell c = cells[p.x][p.y];
-            c.setState(Cell.State.FIXED);
-            c.setOwnerId(ownerId);
-            c.setShapeId(shapeId);
-        }
+        fixPiece(tiles, ownerId, shapeId, 0);
     }
 
     public void fixPiece(List<Point> tiles, int ownerId, int shapeId, int mergeCount) {
-        for (Point p : tiles) {
-            Cell c = cells[p.x][p.y];
-            c.setState(Cell.State.FIXED);
-            c.setOwnerId(ownerId);
-            c.setShapeId(shapeId);
-            c.setMergeCount(mergeCount);    // store merge level
+        // store merge level alongside owner and shape
+        short packed = Cell.pack(Cell.State.FIXED, ownerId, shapeId, mergeCount);
+        journal.begin();
+        for (int i = 0, n = tiles.size(); i < n; i++) {
+            Point p = tiles.get(i);
+            cells[rowMap[p.y] * width + p.x] = packed;
+            setOwnerBit(p.x, p.y, ownerId);
+            journal.cell(p.x, p.y, packed);
+        }
+    }
+
+    /** Empty a single cell (used by wacky-mode detonations). */
+    public void clearCell(int x, int y) {
+        // keep owner/shape/merge bits, like flipping a Cell's state
+        int i = rowMap[y] * width + x;
+        cells[i] &= ~3;
+        setOwnerBit(x, y, 0);
+        journal.begin();
+        journal.cell(x, y, cells[i]);
+    }
+
+    /** Mark (x,y) in ownerId's bitboard and clear it from the other one. */
+    private void setOwnerBit(int x, int y, int ownerId) {
+        int row = rowMap[y];
+        int i = row * words + (x >>> 6);
+        long bit = 1L << x;
+        for (int id = 1; id <= 2; id++) {
+            boolean had = (owners[id][i] & bit) != 0;
+            boolean has = id == ownerId;
+            if (had == has)
+                continue;
+            if (has) {
+                owners[id][i] |= bit;
+                if (++filled[id][row] == width)
+                    fullRows[id]++;
+                int[] sky = skyline[id];
+                sky[x] = id == 1 ? Math.min(sky[x], y) : Math.max(sky[x], y);
+            } else {
+                owners[id][i] &= ~bit;
+                if (filled[id][row]-- == width)
+                    fullRows[id]--;
+                skylineStale[id] = true;
+            }
+        }
+    }
+
+    /** Empty a physical row in place so it can be reused. */
+    private void recycleRow(int row) {
+        Arrays.fill(cells, row * width, (row + 1) * width, Cell.EMPTY);
+        int base = row * words;
+        Arrays.fill(owners[1], base, base + words, 0L);
+        Arrays.fill(owners[2], base, base + words, 0L);
+        for (int id = 1; id <= 2; id++) {
+            if (filled[id][row] == width)
+                fullRows[id]--;
+            filled[id][row] = 0;
         }
     }
 
+    /**
+     * Remove this player's full rows from their half and compact the
+     * remaining rows towards their floor. Nothing is allocated: kept rows
+     * slide down rowMap and cleared rows are emptied and reused on top.
+     */
+    public int clearLines(int ownerId) {
+        // nothing reached a full count since the last clear
+        if (fullRows[ownerId] == 0)
+            return 0;
+        skylineStale[ownerId] = true;
 
-public int clearLines(int ownerId) {
         int mid = height / 2;
         int cleared = 0;
 
         if (ownerId == 1) {
-            // bottom half: rows [mid .. height-1]
-            List<Cell[]> keep = new ArrayList<>();
-            // 1) collect non full rows
-            for (int y = mid; y < height; y++) {
-                if (isLineFull(y, ownerId)) {
-                    cleared++;
-                } else {
-                    Cell[] row = new Cell[width];
-                    for (int x = 0; x < width; x++)
-                        row[x] = cells[x][y];
-                    keep.add(row);
-                }
-            }
-            // 2) rebuild from bottom up: first keep rows
+            // bottom half: rows [mid .. height-1], floor at the bottom
             int yPtr = height - 1;
-            for (int i = keep.size() - 1; i >= 0; i--, yPtr--) {
-                System.arraycopy(keep.get(i), 0, cells, 0, 0); // placeholder
-                for (int x = 0; x < width; x++)
-                    cells[x][yPtr] = keep.get(i)[x];
+            for (int y = height - 1; y >= mid; y--) {
+                int row = rowMap[y];
+                if (isLineFull(row, ownerId))
+                    scratch[cleared++] = row;
+                else
+                    rowMap[yPtr--] = row;
             }
-            // 3) fill the rest with new empty rows
-            while (yPtr >= mid) {
-                for (int x = 0; x < width; x++)
-                    cells[x][yPtr] = new Cell();
-                yPtr--;
+            // recycle cleared rows into the gap left next to the center
+            for (int i = 0; yPtr >= mid; i++, yPtr--) {
+                recycleRow(scratch[i]);
+                rowMap[yPtr] = scratch[i];
             }
+            logRows(mid, height);
 
         } else {
-            // top half: rows [0 .. mid-1]
-            List<Cell[]> keep = new ArrayList<>();
-            // 1) collect non full rows
-            for (int y = 0; y < mid; y++) {
-                if (isLineFull(y, ownerId)) {
-                    cleared++;
-                } else {
-                    Cell[] row = new Cell[width];
-                    for (int x = 0; x < width; x++)
-                        row[x] = cells[x][y];
-                    keep.add(row);
-                }
-            }
-            // 2) rebuild from top down
+            // top half: rows [0 .. mid-1], floor at the top
             int yPtr = 0;
-            for (Cell[] row : keep) {
-                for (int x = 0; x < width; x++)
-                    cells[x][yPtr] = row[x];
-                yPtr++;
+            for (int y = 0; y < mid; y++) {
+                int row = rowMap[y];
+                if (isLineFull(row, ownerId))
+                    scratch[cleared++] = row;
+                else
+                    rowMap[yPtr++] = row;
             }
-            // 3) fill the rest up to mid
-            while (yPtr < mid) {
-                for (int x = 0; x < width; x++)
-                    cells[x][yPtr] = new Cell();
-                yPtr++;
+            for (int i = 0; yPtr < mid; i++, yPtr++) {
+                recycleRow(scratch[i]);
+                rowMap[yPtr] = scratch[i];
             }
+            logRows(0, mid);
         }
 
         return cleared;
     }
 
-    private boolean isLineFull(int y, int ownerId) {
+    /** Journal the final contents of logical rows [fromY, toY) after a shift. */
+    private void logRows(int fromY, int toY) {
+        journal.begin();
+        for (int y = fromY; y < toY; y++) {
+            int base = rowMap[y] * width;
+            for (int x = 0; x < width; x++)
+                journal.cell(x, y, cells[base + x]);
+        }
+    }
+
+    /**
+     * How many steps the tiles can travel in dir before hitting the edge or
+     * one of ownerId's cells. Tiles above the owner's skyline (the usual
+     * case) resolve with one lookup each; a tile tucked under an overhang
+     * scans its own column instead. No piece copies are made.
+     */
+    public int dropDistance(List<Point> tiles, int ownerId, Direction dir) {
+        if (skylineStale[ownerId])
+            rebuildSkyline(ownerId);
+        int[] sky = skyline[ownerId];
+        boolean down = dir == Direction.DOWN;
+        int best = Integer.MAX_VALUE;
+        for (int i = 0, n = tiles.size(); i < n; i++) {
+            Point p = tiles.get(i);
+            if (p.x < 0 || p.x >= width || p.y < 0 || p.y >= height)
+                return 0;
+            int d = down ? sky[p.x] - p.y - 1 : p.y - sky[p.x] - 1;
+            if (d < 0)
+                d = scanColumn(p.x, p.y, ownerId, down);
+            best = Math.min(best, d);
+        }
+        return best == Integer.MAX_VALUE ? 0 : Math.max(0, best);
+    }
+
+    /** Free cells below (or above) (x,y) before an obstacle. */
+    private int scanColumn(int x, int y, int ownerId, boolean down) {
+        int step = down ? 1 : -1;
+        int d = 0;
+        for (int yy = y + step; yy >= 0 && yy < height; yy += step, d++) {
+            if (isOccupied(x, yy, ownerId))
+                break;
+        }
+        return d;
+    }
+
+    private void rebuildSkyline(int ownerId) {
+        int[] sky = skyline[ownerId];
         for (int x = 0; x < width; x++) {
-            Cell c = cells[x][y];
-            if (c.getState() != Cell.State.FIXED || c.getOwnerId() != ownerId)
-                return false;
+            int y;
+            if (ownerId == 1) {
+                for (y = 0; y < height && !isOccupied(x, y, 1); y++)
+                    ;
+            } else {
+                for (y = height - 1; y >= 0 && !isOccupied(x, y, 2); y--)
+                    ;
+            }
+            sky[x] = y;
+        }
+        skylineStale[ownerId] = false;
+    }
+
+    private boolean isLineFull(int row, int ownerId) {
+        return filled[ownerId][row] == width;
+    }
+
+    // ─── Saved state ──────────────────────────────────────────
+
+    /** Bytes {@link #save} writes. */
+    public int stateSize() {
+        return cells.length * 2;
+    }
+
+    /** Write every cell, in logical order. */
+    public void save(ByteBuffer out) {
+        for (int y = 0; y < height; y++) {
+            int base = rowMap[y] * width;
+            for (int x = 0; x < width; x++)
+                out.putShort(cells[base + x]);
+        }
+    }
+
+    /**
+     * Replace the board with one written by {@link #save}; the bitboards,
+     * fill counts and skylines are rebuilt from the cells and the journal
+     * starts over (every row dirty).
+     */
+    public void load(ByteBuffer in) {
+        clear();
+        for (int y = 0; y < height; y++) {
+            int base = rowMap[y] * width;
+            for (int x = 0; x < width; x++) {
+                short c = in.getShort();
+                cells[base + x] = c;
+                if (Cell.isFixed(c))
+                    setOwnerBit(x, y, Cell.ownerOf(c));
+            }
+        }
+    }
+
+    /** Raw copy of every array behind a board; see {@link #save(State)}. */
+    public static final class State {
+        private final short[] cells;
+        private final int[] rowMap;
+        private final long[][] owners;
+        private final int[][] filled;
+        private final int[] fullRows = new int[3];
+        private final int[][] skyline;
+        private final boolean[] skylineStale = new boolean[3];
+
+        private State(Board b) {
+            cells = new short[b.cells.length];
+            rowMap = new int[b.height];
+            owners = new long[3][b.owners[1].length];
+            filled = new int[3][b.height];
+            skyline = new int[3][b.width];
+        }
+
+        /** Fold the saved cells, in logical order, into a running hash. */
+        long hash(long h) {
+            int width = skyline[1].length;
+            for (int y = 0; y < rowMap.length; y++) {
+                int base = rowMap[y] * width;
+                for (int x = 0; x < width; x++)
+                    h = GameEngine.mix(h, cells[base + x]);
+            }
+            return h;
+        }
+    }
+
+    /** A State sized for this board. */
+    public State newState() {
+        return new State(this);
+    }
+
+    /** Copy the board into s; nothing is allocated or rebuilt. */
+    public void save(State s) {
+        System.arraycopy(cells, 0, s.cells, 0, cells.length);
+        System.arraycopy(rowMap, 0, s.rowMap, 0, height);
+        for (int id = 1; id <= 2; id++) {
+            System.arraycopy(owners[id], 0, s.owners[id], 0, owners[id].length);
+            System.arraycopy(filled[id], 0, s.filled[id], 0, height);
+            System.arraycopy(skyline[id], 0, s.skyline[id], 0, width);
+            s.fullRows[id] = fullRows[id];
+            s.skylineStale[id] = skylineStale[id];
+        }
+    }
+
+    /**
+     * Put the board back as it was when s was saved. Cells that differ
+     * from the current board are journaled, so followers only redraw what
+     * the restore actually changed.
+     */
+    public void restore(State s) {
+        boolean logged = false;
+        for (int y = 0; y < height; y++) {
+            int a = rowMap[y] * width, b = s.rowMap[y] * width;
+            for (int x = 0; x < width; x++) {
+                short c = s.cells[b + x];
+                if (cells[a + x] != c) {
+                    if (!logged) {
+                        journal.begin();
+                        logged = true;
+                    }
+                    journal.cell(x, y, c);
+                }
+            }
+        }
+        System.arraycopy(s.cells, 0, cells, 0, cells.length);
+        System.arraycopy(s.rowMap, 0, rowMap, 0, height);
+        for (int id = 1; id <= 2; id++) {
+            System.arraycopy(s.owners[id], 0, owners[id], 0, owners[id].length);
+            System.arraycopy(s.filled[id], 0, filled[id], 0, height);
+            System.arraycopy(s.skyline[id], 0, skyline[id], 0, width);
+            fullRows[id] = s.fullRows[id];
+            skylineStale[id] = s.skylineStale[id];
+        }
+    }
+
+    /** Fold every cell, in logical order, into a running state hash. */
+    public long hash(long h) {
+        for (int y = 0; y < height; y++) {
+            int base = rowMap[y] * width;
+            for (int x = 0; x < width; x++)
+                h = GameEngine.mix(h, cells[base + x]);
         }
-        return true;
+        return h;
     }
 
     public int getNumCols()  { return width; }
@@ -0,0 +1,110 @@
+package src;
+// BoardJournal.java
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Records what changed on a {@link Board}: a version stamp per row plus an
+ * append-only log of cell writes (kept in a fixed ring, so appending never
+ * allocates). Any number of consumers can follow it with their own
+ * {@link Cursor} and drain the changes once per frame or per tick.
+ *
+ * A consumer that falls more than the ring's capacity behind (or crosses a
+ * {@link Board#clear()}) only gets its dirty rows back and should re-read
+ * those rows from the board.
+ *
+ * Not thread-safe: drain on the thread that mutates the board.
+ */
+public class BoardJournal {
+    /** Receives logged cell writes in the order they happened. */
+    public interface Sink {
+        void cellChanged(int x, int y, short packed);
+    }
+
+    /** A consumer's read position. */
+    public static final class Cursor {
+        private long version;
+        private long seq;
+    }
+
+    private static final int LOG_BITS = 12;
+    private static final int LOG_SIZE = 1 << LOG_BITS;     // 4096 entries
+    private static final int LOG_MASK = LOG_SIZE - 1;
+
+    private final long[] rowVersion;    // logical row -> version of last change
+    private final long[] log = new long[LOG_SIZE];
+    private long version;               // bumped once per board mutation
+    private long seq;                   // entries ever appended
+    private long floor;                 // oldest entry still replayable
+
+    BoardJournal(int rows) {
+        this.rowVersion = new long[rows];
+    }
+
+    /** Current version; changes whenever the board does. */
+    public long getVersion() {
+        return version;
+    }
+
+    /** Version of the last change to logical row y. */
+    public long getRowVersion(int y) {
+        return rowVersion[y];
+    }
+
+    /** A cursor positioned at the current state (sees only future changes). */
+    public Cursor newCursor() {
+        Cursor c = new Cursor();
+        c.version = version;
+        c.seq = seq;
+        return c;
+    }
+
+    /**
+     * Hand everything since the cursor's last drain to the caller: dirty
+     * logical rows are set in {@code dirtyRows} and logged writes go to
+     * {@code sink} (which may be null). Returns false if part of the log was
+     * already overwritten, in which case only the dirty rows are exact.
+     */
+    public boolean drain(Cursor c, BitSet dirtyRows, Sink sink) {
+        if (c.version != version) {
+            for (int y = 0; y < rowVersion.length; y++) {
+                if (rowVersion[y] > c.version)
+                    dirtyRows.set(y);
+            }
+        }
+        boolean complete = c.seq >= floor;
+        if (sink != null && complete) {
+            for (long s = c.seq; s < seq; s++) {
+                long e = log[(int) (s & LOG_MASK)];
+                sink.cellChanged((int) (e & 0xFFFF), (int) ((e >>> 16) & 0xFFFF), (short) (e >>> 32));
+            }
+        }
+        c.version = version;
+        c.seq = seq;
+        return complete;
+    }
+
+    // ─── Writer side (called by Board) ─────────────────────────
+
+    /** Start a new mutation; following writes share its version. */
+    void begin() {
+        version++;
+    }
+
+    void cell(int x, int y, short packed) {
+        rowVersion[y] = version;
+        log[(int) (seq & LOG_MASK)] = (x & 0xFFFFL) | (y & 0xFFFFL) << 16 | (packed & 0xFFFFL) << 32;
+        seq++;
+        if (seq - floor > LOG_SIZE)
+            floor = seq - LOG_SIZE;
+    }
+
+    /** Whole board replaced: every row dirty, old log entries unusable. */
+    void reset() {
+        version++;
+        Arrays.fill(rowVersion, version);
+        seq++;              // skip an entry so every older cursor sees a gap
+        floor = seq;
+    }
+}
@@ -0,0 +1,100 @@
+package src;
+// BoardLayer.java
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * The board's fixed cells over its backdrop, kept in one device-resolution
+ * image between frames. Each frame only the rows whose
+ * {@link GameSnapshot#getRowVersion row version} moved are redrawn (a lock
+ * touches a few rows, a line clear one half), and the whole board then goes
+ * to the screen as a single blit. A new backdrop, atlas or placement
+ * redraws every row.
+ */
+final class BoardLayer {
+    private BufferedImage image;
+    private long[] drawn = new long[0];     // row version each image row shows
+    private BufferedImage drawnBackdrop;
+    private TileAtlas drawnAtlas;
+    private final Rectangle bounds = new Rectangle();   // image area on the surface, device pixels
+    private double fracX, fracY;            // sub-pixel part of the board origin it was drawn at
+
+    /**
+     * Update the image from snap and blit it. g maps natural board space
+     * (board at offsetX, offsetY) onto the device; backdrop is the
+     * surface's static layer, one pixel per device pixel from (surfaceX,
+     * surfaceY), the device position of the surface's top-left corner.
+     */
+    void draw(Graphics2D g, GameSnapshot snap, BufferedImage backdrop, TileAtlas atlas,
+            double surfaceX, double surfaceY, int offsetX, int offsetY, int tile) {
+        int cols = snap.getNumCols(), rows = snap.getNumRows();
+        AffineTransform t = g.getTransform();
+        // everything below is relative to the surface, so moving the
+        // surface by whole pixels keeps the image
+        double ox = t.getTranslateX() - surfaceX, oy = t.getTranslateY() - surfaceY;
+        double s = t.getScaleX();
+        Rectangle r = new Rectangle2D.Double(ox + offsetX * s, oy + offsetY * s, cols * tile * s, rows * tile * s)
+                .getBounds();
+        double fx = ox - Math.floor(ox), fy = oy - Math.floor(oy);
+
+        if (image == null || drawn.length != rows || !r.equals(bounds) || fx != fracX || fy != fracY
+                || backdrop != drawnBackdrop || atlas != drawnAtlas) {
+            if (image == null || image.getWidth() != r.width || image.getHeight() != r.height) {
+                GraphicsConfiguration gc = g.getDeviceConfiguration();
+                image = gc != null
+                        ? gc.createCompatibleImage(Math.max(1, r.width), Math.max(1, r.height), Transparency.OPAQUE)
+                        : new BufferedImage(Math.max(1, r.width), Math.max(1, r.height), BufferedImage.TYPE_INT_RGB);
+            }
+            if (drawn.length != rows)
+                drawn = new long[rows];
+            Arrays.fill(drawn, Long.MIN_VALUE);
+            bounds.setBounds(r);
+            fracX = fx;
+            fracY = fy;
+            drawnBackdrop = backdrop;
+            drawnAtlas = atlas;
+        }
+
+        Graphics2D ig = null;
+        for (int y = 0; y < rows; y++) {
+            long v = snap.getRowVersion(y);
+            if (drawn[y] == v)
+                continue;
+            if (ig == null) {
+                ig = image.createGraphics();
+                ig.translate(ox - r.x, oy - r.y);
+                ig.scale(s, s);
+            }
+            // the row's device strip; the outer rows take the edges too
+            int top = y == 0 ? 0 : (int) Math.floor(oy + (offsetY + y * tile) * s) - r.y;
+            int bottom = y == rows - 1 ? r.height : (int) Math.floor(oy + (offsetY + (y + 1) * tile) * s) - r.y;
+            AffineTransform natural = ig.getTransform();
+            ig.setTransform(new AffineTransform());
+            ig.setClip(0, top, r.width, bottom - top);
+            ig.drawImage(backdrop, -r.x, -r.y, null);
+            ig.setTransform(natural);
+            atlas.begin(ig);
+            for (int x = 0; x < cols; x++) {
+                short c = snap.getPacked(x, y);
+                if (Cell.isFixed(c))
+                    atlas.solid(ig, Tetris.cellTint(c), offsetX + x * tile, offsetY + y * tile);
+            }
+            atlas.end(ig);
+            drawn[y] = v;
+        }
+        if (ig != null)
+            ig.dispose();
+
+        AffineTransform saved = g.getTransform();
+        g.setTransform(new AffineTransform());
+        g.drawImage(image, (int) Math.round(surfaceX) + r.x, (int) Math.round(surfaceY) + r.y, null);
+        g.setTransform(saved);
+    }
+}
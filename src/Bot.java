@@ -0,0 +1,187 @@
+package src;
+// Bot.java
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A heuristic player for batch simulation and load tests. Every few ticks
+ * it looks at where its current piece could land (each rotation, each
+ * reachable column), scores the resulting half-board with the usual
+ * height / lines / holes / bumpiness weights, and sends one command
+ * towards the best spot: a rotation, a one-column move, or, once lined
+ * up, a soft or hard drop. Planning again on every action means gravity,
+ * merges and detonations never leave it following a stale plan.
+ *
+ * Deterministic for a given seed and engine state, so a match between two
+ * bots is reproducible from the match seed alone. Allocation-free after
+ * construction.
+ */
+public class Bot {
+    // placement weights, scaled by 100
+    private static final int W_HEIGHT = -51, W_LINES = 76, W_HOLES = -36, W_BUMPS = -18;
+    private static final int LOSS = Integer.MIN_VALUE / 2;
+
+    private final int playerId;
+    private final Random rng = new Random();
+    private final int actEvery;         // ticks between commands
+    private final int hardDropPercent;  // chance a lined-up piece is hard dropped
+    private final Tetramino probe = new Tetramino();
+    private boolean[] base = new boolean[0], grid = new boolean[0];
+    private int[] top = new int[0];
+    private int wait;
+
+    // best placement found by plan(): turns (0..3 clockwise) and columns to go
+    private int turns, dx;
+
+    /**
+     * actEvery: ticks between commands (reaction speed); hardDropPercent:
+     * how often a lined-up piece is slammed rather than soft-dropped a row,
+     * which decides how long pieces stay in the middle where they merge.
+     */
+    public Bot(int playerId, long seed, int actEvery, int hardDropPercent) {
+        if (actEvery < 1)
+            throw new IllegalArgumentException("bot must act at least every tick");
+        this.playerId = playerId;
+        this.actEvery = actEvery;
+        this.hardDropPercent = hardDropPercent;
+        reset(seed);
+    }
+
+    /** Forget the previous match and reseed. */
+    public void reset(long seed) {
+        rng.setSeed(seed ^ playerId);
+        wait = 1 + rng.nextInt(actEvery);
+    }
+
+    /**
+     * The command to apply before this tick (see {@link GameEngine#command}),
+     * or 0 for none.
+     */
+    public long next(GameEngine engine) {
+        if (engine.isOver() || --wait > 0)
+            return 0;
+        wait = actEvery;
+        plan(engine.getBoard(), engine.getPlayer(playerId).getCurrentPiece());
+        if (turns != 0)
+            return GameEngine.command(GameEngine.CMD_ROTATE, playerId, turns == 3 ? -1 : 1);
+        if (dx != 0)
+            return GameEngine.command(GameEngine.CMD_MOVE, playerId, Integer.signum(dx));
+        boolean slam = rng.nextInt(100) < hardDropPercent;
+        return GameEngine.command(slam ? GameEngine.CMD_HARD_DROP : GameEngine.CMD_SOFT_DROP, playerId, 0);
+    }
+
+    // ─── Planning ─────────────────────────────────────────────
+
+    /** Pick the best reachable placement for piece into turns and dx. */
+    private void plan(Board board, Tetramino piece) {
+        int cols = board.getNumCols(), rows = board.getNumRows();
+        int half = usableRows(rows);
+        if (base.length < half * cols) {
+            base = new boolean[half * cols];
+            grid = new boolean[half * cols];
+            top = new int[cols];
+        }
+        // our own cells, by depth from our floor
+        for (int d = 0; d < half; d++) {
+            int y = rowAt(rows, d);
+            for (int x = 0; x < cols; x++)
+                base[d * cols + x] = board.isOccupied(x, y, playerId);
+        }
+
+        int best = Integer.MIN_VALUE;
+        turns = 0;
+        dx = 0;
+        probe.copyFrom(piece);
+        for (int r = 0; r < 4; r++) {
+            if (r > 0) {
+                // kick-free turns only, so the engine turns the same way
+                probe.rotatePiece(1);
+                if (board.isCollision(probe, 0, 0, playerId))
+                    break;
+            }
+            for (int dir = -1; dir <= 1; dir += 2) {
+                for (int step = dir < 0 ? 0 : 1; ; step++) {
+                    int shift = dir * step;
+                    if (board.isCollision(probe, shift, 0, playerId))
+                        break;
+                    int score = evaluate(board, shift, cols, rows, half);
+                    // ties go to fewer inputs
+                    if (score > best || score == best && r + step < turns + Math.abs(dx)) {
+                        best = score;
+                        turns = r;
+                        dx = shift;
+                    }
+                }
+            }
+            if (probe.getShapeID() == 1)
+                break;  // O pieces (merged ones too) never turn
+        }
+    }
+
+    /** Score the probe landed after moving shift columns; LOSS if it tops out. */
+    private int evaluate(Board board, int shift, int cols, int rows, int half) {
+        probe.shift(shift, 0);
+        Direction fall = playerId == 1 ? Direction.DOWN : Direction.UP;
+        List<Point> tiles = probe.getTiles();
+        int fallBy = board.dropDistance(tiles, playerId, fall) * (playerId == 1 ? 1 : -1);
+        System.arraycopy(base, 0, grid, 0, half * cols);
+        boolean lost = false;
+        for (int i = 0, n = tiles.size(); i < n; i++) {
+            Point p = tiles.get(i);
+            int d = depthOf(rows, p.y + fallBy);
+            if (d < 0 || d >= half)
+                lost = true;
+            else
+                grid[d * cols + p.x] = true;
+        }
+        probe.shift(-shift, 0);
+        if (lost)
+            return LOSS;
+
+        // heights and holes with full rows taken out
+        int lines = 0, holes = 0;
+        Arrays.fill(top, 0, cols, 0);
+        for (int d = 0; d < half; d++) {
+            int filled = 0;
+            for (int x = 0; x < cols; x++)
+                if (grid[d * cols + x])
+                    filled++;
+            if (filled == cols) {
+                lines++;
+                continue;
+            }
+            int h = d - lines + 1;
+            for (int x = 0; x < cols; x++) {
+                if (grid[d * cols + x]) {
+                    holes += h - 1 - top[x];    // gaps under this block since the last one
+                    top[x] = h;
+                }
+            }
+        }
+        int height = 0, bumps = 0;
+        for (int x = 0; x < cols; x++) {
+            height += top[x];
+            if (x > 0)
+                bumps += Math.abs(top[x] - top[x - 1]);
+        }
+        return W_HEIGHT * height + W_LINES * lines + W_HOLES * holes + W_BUMPS * bumps;
+    }
+
+    /** Rows of our half a piece can lock in without topping out. */
+    private int usableRows(int rows) {
+        int mid = rows / 2;
+        return playerId == 1 ? rows - 1 - mid : mid;
+    }
+
+    /** Board row at depth d above (or below) our floor. */
+    private int rowAt(int rows, int d) {
+        return playerId == 1 ? rows - 1 - d : d;
+    }
+
+    private int depthOf(int rows, int y) {
+        return playerId == 1 ? rows - 1 - y : y;
+    }
+}
@@ -5,10 +5,20 @@ package src;
  * Represents one cell on the BattleTetris board.
  * Tracks whether it's empty, a wall, or occupied by a fixed piece,
  * and if fixed, which player owns it and which shape.
+ *
+ * The board itself stores cells as packed shorts (see {@link #pack});
+ * a Cell object is just an unpacked view of one of those values.
  */
 public class Cell {
     public enum State { EMPTY, FIXED, WALL }
 
+    private static final State[] STATES = State.values();
+
+    // Packed layout: bits 0-1 state, 2-3 owner, 4-6 shape+1, 7-11 merge count
+    public static final short EMPTY = 0;
+    private static final int OWNER_SHIFT = 2, SHAPE_SHIFT = 4, MERGE_SHIFT = 7;
+    private static final int MERGE_MAX = 31;
+
     private State state;
     private int ownerId;   // 0 = none, 1 or 2 = player
     private int shapeId;   // 0–6 = Tetramino shape, or -1 if none
@@ -60,4 +70,33 @@ private int mergeCount = 0;
 
     public int getMergeCount() { return mergeCount; }
     public void setMergeCount(int m) { this.mergeCount = m; }
+
+    /** Overwrite this view with an unpacked board value. */
+    public Cell load(short packed) {
+        this.state      = stateOf(packed);
+        this.ownerId    = ownerOf(packed);
+        this.shapeId    = shapeOf(packed);
+        this.mergeCount = mergeOf(packed);
+        return this;
+    }
+
+    /** Pack this cell back into the board's short representation. */
+    public short pack() {
+        return pack(state, ownerId, shapeId, mergeCount);
+    }
+
+    // ─── Packed encoding ────────────────────────────────────────
+
+    public static short pack(State state, int ownerId, int shapeId, int mergeCount) {
+        return (short) (state.ordinal()
+                | (ownerId & 3) << OWNER_SHIFT
+                | ((shapeId + 1) & 7) << SHAPE_SHIFT
+                | Math.min(mergeCount, MERGE_MAX) << MERGE_SHIFT);
+    }
+
+    public static State stateOf(short packed) { return STATES[packed & 3]; }
+    public static boolean isFixed(short packed) { return (packed & 3) == 1; }
+    public static int ownerOf(short packed) { return (packed >> OWNER_SHIFT) & 3; }
+    public static int shapeOf(short packed) { return ((packed >> SHAPE_SHIFT) & 7) - 1; }
+    public static int mergeOf(short packed) { return (packed >> MERGE_SHIFT) & MERGE_MAX; }
 }
@@ -0,0 +1,583 @@
+package src;
+// GameEngine.java
+
+import java.awt.Point;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The rules of a BattleTetris match with no UI attached: the board, both
+ * players, gravity, wacky-mode merging and detonations. Callers drive it
+ * with {@link #tick()} at {@link #TICK_RATE} Hz (or {@link #step()} for one
+ * gravity row) plus either key edges, which each player's
+ * {@link InputSampler} resolves once per tick, or the direct input methods.
+ * Anything audible or visible is reported through a {@link GameListener}.
+ *
+ * Not thread-safe: one thread should own an engine ({@link GameLoop} runs
+ * it on a dedicated simulation thread).
+ */
+public class GameEngine {
+    /** Default merge limit; see {@link Rules}. */
+    public static final int MAX_MERGES = 4;
+
+    /** Logic ticks per second that gravity is expressed against. */
+    public static final int TICK_RATE = 60;
+    /** Gravity is fixed-point cells per tick; this is one cell. */
+    public static final int GRAVITY_ONE = 1 << 16;
+
+    private final int cols, rows;
+    private final boolean wackyMode;
+    private final Board board;
+    private final Player p1, p2;
+    private final InputSampler s1, s2;
+    private long seed;
+    private Rules rules = Rules.DEFAULT;
+    private GameListener listener = GameListener.NONE;
+    // detonation scheduled for the next gravity step; winner 0 = none
+    private int detonateWinner, detonateX, detonateY;
+    private boolean overReported = false;
+    private boolean gameOverEvents = true;
+    private int gravity = gravityForLevel(1);
+    private int gravityAcc;
+    private long tickCount;
+    private ReplayWriter recorder;
+
+    public GameEngine(int cols, int rows, boolean wackyMode, long seed) {
+        this.cols = cols;
+        this.rows = rows;
+        this.wackyMode = wackyMode;
+        this.seed = seed;
+        board = new Board(cols, rows);
+        // one master seed, split per player so each side's bag is independent
+        PieceQueue seeds = new PieceQueue(seed);
+        p1 = new Player(1, Direction.DOWN, new Point(cols / 2, 4), board, this, seeds.split());
+        p2 = new Player(2, Direction.UP, new Point(cols / 2, rows - 4), board, this, seeds.split());
+        s1 = new InputSampler(this, 1);
+        s2 = new InputSampler(this, 2);
+        initGame();
+    }
+
+    private void initGame() {
+        board.clear();
+        p1.newPiece();
+        p2.newPiece();
+    }
+
+    /** Start a new match on the same board with a new piece sequence. */
+    public void reset(long seed) {
+        this.seed = seed;
+        recorder = null;
+        detonateWinner = 0;
+        overReported = false;
+        gravityAcc = 0;
+        tickCount = 0;
+        s1.releaseAll();
+        s2.releaseAll();
+        board.clear();
+        PieceQueue seeds = new PieceQueue(seed);
+        p1.reset(seeds.split());
+        p2.reset(seeds.split());
+        initGame();
+    }
+
+    /**
+     * Record every command passed to {@link #apply(long)} and a state hash
+     * per tick into recorder (null to stop). Recording ends with the match:
+     * {@link #reset(long)} detaches it.
+     */
+    public void setRecorder(ReplayWriter recorder) {
+        this.recorder = recorder;
+        if (recorder != null)
+            recorder.begin(this);
+    }
+
+    /**
+     * Scoring and merge limits; set before the first tick. Rules are not
+     * part of saved states, replays or the state hash, so every engine
+     * replaying or mirroring this one must be given the same rules.
+     */
+    public void setRules(Rules rules) {
+        this.rules = rules;
+    }
+
+    public Rules getRules() {
+        return rules;
+    }
+
+    public void setListener(GameListener listener) {
+        this.listener = listener != null ? listener : GameListener.NONE;
+    }
+
+    GameListener events() {
+        return listener;
+    }
+
+    /**
+     * Whether ticks fire {@link GameListener#onGameOver}. A RollbackSession
+     * turns this off and reports the end itself once both sides agree on
+     * it, since a predicted tick may top out and then be rolled back.
+     */
+    void setGameOverEvents(boolean on) {
+        gameOverEvents = on;
+    }
+
+    // ─── Simulation ───────────────────────────────────────────
+
+    /**
+     * Fixed-point gravity (GRAVITY_ONE = one cell per tick) for a level,
+     * using the guideline curve: level 1 falls one row per second.
+     */
+    public static int gravityForLevel(int level) {
+        int l = Math.max(1, level);
+        double secondsPerRow = Math.pow(0.8 - (l - 1) * 0.007, l - 1);
+        return (int) Math.min(20L * GRAVITY_ONE, Math.round(GRAVITY_ONE / (secondsPerRow * TICK_RATE)));
+    }
+
+    public void setGravity(int cellsPerTick) {
+        this.gravity = cellsPerTick;
+    }
+
+    public int getGravity() {
+        return gravity;
+    }
+
+    /** Ticks simulated since the match started. */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * One logic tick: resolve held keys, then accumulate gravity and drop a
+     * row per whole cell.
+     */
+    public void tick() {
+        if (isOver())
+            return;
+        tickCount++;
+        s1.update();
+        s2.update();
+        gravityAcc += gravity;
+        while (gravityAcc >= GRAVITY_ONE && !isOver()) {
+            gravityAcc -= GRAVITY_ONE;
+            step();
+        }
+        if (recorder != null)
+            recorder.tick(this);
+    }
+
+    /** One gravity tick: both pieces fall a row (and may merge). */
+    public void step() {
+        if (isOver())
+            return;
+        if (detonateWinner != 0) {
+            // explode the merged piece player's block...
+            int explodedWinner = detonateWinner;
+            detonate();
+            // ...but still let the other player drop normally
+            if (explodedWinner == 1) {
+                p2.drop();
+            } else {
+                p1.drop();
+            }
+        } else {
+            // normal tick: both players drop
+            p1.drop();
+            p2.drop();
+            if (wackyMode)
+                checkMerge();
+        }
+        checkGameOver();
+    }
+
+    // ─── Input ────────────────────────────────────────────────
+
+    /** Returns whether the piece moved. */
+    public boolean move(int playerId, int dx) {
+        if (isOver())
+            return false;
+        return getPlayer(playerId).move(dx);
+    }
+
+    public void rotate(int playerId, int delta) {
+        if (isOver())
+            return;
+        getPlayer(playerId).rotate(delta);
+    }
+
+    public void softDrop(int playerId) {
+        if (isOver())
+            return;
+        getPlayer(playerId).drop();
+        checkGameOver();
+    }
+
+    public void hardDrop(int playerId) {
+        if (isOver())
+            return;
+        getPlayer(playerId).hardDrop();
+        checkGameOver();
+    }
+
+    public void hold(int playerId) {
+        if (isOver())
+            return;
+        getPlayer(playerId).hold();
+    }
+
+    // ─── Commands ─────────────────────────────────────────────
+
+    // Input as a single long, so it can cross threads (and later the wire)
+    // without allocation: type (8 bits) | player (8) | signed argument (16).
+    // The top 32 bits are ignored here; GameLoop keeps a timestamp there.
+    public static final int CMD_MOVE = 1;
+    public static final int CMD_ROTATE = 2;
+    public static final int CMD_SOFT_DROP = 3;
+    public static final int CMD_HARD_DROP = 4;
+    public static final int CMD_HOLD = 5;
+    /** arg is an {@link InputSampler} key. */
+    public static final int CMD_KEY_DOWN = 6;
+    public static final int CMD_KEY_UP = 7;
+    /** Release every key the player holds. */
+    public static final int CMD_RELEASE_ALL = 8;
+
+    public static long command(int type, int playerId, int arg) {
+        return (type & 0xFF) | (playerId & 0xFF) << 8 | (arg & 0xFFFFL) << 16;
+    }
+
+    /** Run a command built by {@link #command(int, int, int)}. */
+    public void apply(long command) {
+        if (recorder != null)
+            recorder.command(tickCount, command);
+        int playerId = (int) (command >>> 8) & 0xFF;
+        int arg = (short) (command >>> 16);
+        switch ((int) command & 0xFF) {
+            case CMD_MOVE:
+                move(playerId, arg);
+                break;
+            case CMD_ROTATE:
+                rotate(playerId, arg);
+                break;
+            case CMD_SOFT_DROP:
+                softDrop(playerId);
+                break;
+            case CMD_HARD_DROP:
+                hardDrop(playerId);
+                break;
+            case CMD_HOLD:
+                hold(playerId);
+                break;
+            case CMD_KEY_DOWN:
+                if (!isOver())
+                    getInput(playerId).keyDown(arg);
+                break;
+            case CMD_KEY_UP:
+                getInput(playerId).keyUp(arg);
+                break;
+            case CMD_RELEASE_ALL:
+                getInput(playerId).releaseAll();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void checkGameOver() {
+        if (!overReported && isOver()) {
+            overReported = true;
+            if (gameOverEvents)
+                listener.onGameOver(getWinner());
+        }
+    }
+
+    // ─── Wacky mode ───────────────────────────────────────────
+
+    /**
+     * If any tile of p1 and p2 overlap, merge them.
+     * The other player takes control,
+     * and the loser immediately gets a fresh piece.
+     */
+    private void checkMerge() {
+        List<Point> t1 = p1.getCurrentTiles();
+        List<Point> t2 = p2.getCurrentTiles();
+
+        // exact overlap?
+        Set<Point> overlap = new HashSet<>(t1);
+        overlap.retainAll(t2);
+        if (!overlap.isEmpty()) {
+            doMerge(t1, t2, overlap.iterator().next());
+            return;
+        }
+
+        // 2) adjacency (manhattan)
+        for (Point a : t1) {
+            for (Point b : t2) {
+                if (Math.abs(a.x - b.x) + Math.abs(a.y - b.y) == 1) {
+                    doMerge(t1, t2, a);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Perform the actual merge of two tile lists t1 and t2,
+     * union them, reassign control to the opposite side player,
+     * and give the loser a fresh piece.
+     */
+    private void doMerge(List<Point> t1, List<Point> t2, Point contact) {
+        // union
+        Set<Point> merged = new HashSet<>(t1);
+        merged.addAll(t2);
+
+        // who wins
+        int mid = rows / 2;
+        boolean inBottom = contact.y >= mid;
+        Player winner = inBottom ? p2 : p1;
+        Player loser = (winner == p1) ? p2 : p1;
+
+        // build the new piece (tiles + pivot)
+        Tetramino m = new Tetramino();
+        m.clearTiles();
+        merged.forEach(pt -> m.addTile(new Point(pt)));
+        m.setPivot(computePivot(merged));
+
+        int old1 = p1.getCurrentPiece().getMergeCount();
+        int old2 = p2.getCurrentPiece().getMergeCount();
+        int newCount = Math.max(old1, old2) + 1;
+
+        if (newCount >= rules.getMaxMerges()) {
+            // hand off the final merged piece
+            m.setMergeCount(newCount);
+            winner.setCurrentPiece(m);
+            loser.newPiece();
+
+            // schedule a detonation for the next tick
+            detonateWinner = winner.getPlayerId();
+            detonateX = contact.x;
+            detonateY = contact.y;
+            return;
+        } else {
+            // normal hand‑off
+            m.setMergeCount(newCount); // set PROPAGATED count
+            winner.setCurrentPiece(m);
+            loser.newPiece();
+            listener.onMerge(winner.getPlayerId(), newCount);
+        }
+    }
+
+    /** Compute center of mass pivot for a merged shape. */
+    private Point computePivot(Set<Point> pts) {
+        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+        int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+        for (Point p : pts) {
+            minX = Math.min(minX, p.x);
+            maxX = Math.max(maxX, p.x);
+            minY = Math.min(minY, p.y);
+            maxY = Math.max(maxY, p.y);
+        }
+        // center
+        return new Point((minX + maxX) / 2, (minY + maxY) / 2);
+    }
+
+    /** Set off the scheduled detonation. */
+    private void detonate() {
+        Player winner = getPlayer(detonateWinner);
+        detonateWinner = 0;
+        listener.onDetonation(detonateX, detonateY);
+
+        // remove the tiles
+        board.clearCell(detonateX, detonateY);
+
+        // penalty & fresh piece
+        winner.addScore(-rules.getDetonationPenalty());
+        winner.newPiece();
+    }
+
+    // ─── Saved state ──────────────────────────────────────────
+
+    private static final int STATE_HEADER = 39;
+
+    /** Bytes {@link #saveState} would write right now. */
+    public int stateSize() {
+        return STATE_HEADER + board.stateSize() + p1.stateSize() + p2.stateSize()
+                + 2 * InputSampler.STATE_SIZE;
+    }
+
+    /**
+     * Write the complete match state, enough for {@link #loadState} to
+     * continue exactly where this engine is: board, both players with their
+     * pieces, holds, queues and generators, held keys, gravity and any
+     * pending detonation. The listener and recorder are not included.
+     */
+    public void saveState(ByteBuffer out) {
+        saveScalars(out);
+        board.save(out);
+        savePlayers(out);
+    }
+
+    /**
+     * Continue from a state written by {@link #saveState} for an engine of
+     * the same size and mode. No events are fired.
+     */
+    public void loadState(ByteBuffer in) {
+        loadScalars(in);
+        board.load(in);
+        loadPlayers(in);
+    }
+
+    /** A snapshot buffer sized for this engine, for {@link #save(GameState)}. */
+    public GameState newState() {
+        return new GameState(board.newState(), stateSize() - board.stateSize());
+    }
+
+    /**
+     * Copy the complete match state into s, reusing its buffers: the board
+     * as raw arrays, everything else as the {@link #saveState} bytes. Cheap
+     * enough to call every tick (rollback keeps one per tick in flight).
+     */
+    public void save(GameState s) {
+        board.save(s.board);
+        ByteBuffer d = s.data(stateSize() - board.stateSize());
+        saveScalars(d);
+        savePlayers(d);
+        s.size = d.position();
+        s.tick = tickCount;
+    }
+
+    /**
+     * Go back to a state captured by {@link #save(GameState)} on this
+     * engine (or one of the same size and mode). No events are fired and
+     * nothing is allocated; the board journal only logs cells that differ.
+     * Don't restore while a recorder is attached.
+     */
+    public void restore(GameState s) {
+        board.restore(s.board);
+        ByteBuffer d = s.data;
+        d.rewind();
+        loadScalars(d);
+        loadPlayers(d);
+    }
+
+    private void saveScalars(ByteBuffer out) {
+        out.putShort((short) cols);
+        out.putShort((short) rows);
+        out.put((byte) (wackyMode ? 1 : 0));
+        out.putLong(seed);
+        out.putLong(tickCount);
+        out.putInt(gravity);
+        out.putInt(gravityAcc);
+        out.put((byte) (overReported ? 1 : 0));
+        out.put((byte) detonateWinner);
+        out.putInt(detonateX);
+        out.putInt(detonateY);
+    }
+
+    private void savePlayers(ByteBuffer out) {
+        p1.save(out);
+        p2.save(out);
+        s1.save(out);
+        s2.save(out);
+    }
+
+    private void loadScalars(ByteBuffer in) {
+        int c = in.getShort(), r = in.getShort();
+        boolean w = in.get() != 0;
+        if (c != cols || r != rows || w != wackyMode)
+            throw new IllegalArgumentException("state is for a " + c + "x" + r + (w ? " wacky" : "")
+                    + " match, this engine is " + cols + "x" + rows + (wackyMode ? " wacky" : ""));
+        seed = in.getLong();
+        tickCount = in.getLong();
+        gravity = in.getInt();
+        gravityAcc = in.getInt();
+        overReported = in.get() != 0;
+        detonateWinner = in.get();
+        detonateX = in.getInt();
+        detonateY = in.getInt();
+    }
+
+    private void loadPlayers(ByteBuffer in) {
+        p1.load(in);
+        p2.load(in);
+        s1.load(in);
+        s2.load(in);
+    }
+
+    // ─── State hash ───────────────────────────────────────────
+
+    /**
+     * Hash of everything that decides how the match continues: board,
+     * pieces, holds, queues and generators, scores, held keys, gravity and
+     * any pending detonation. Two engines with equal hashes behave the same
+     * from here on (barring collisions), which is what replays check.
+     */
+    public long stateHash() {
+        long h = mix(cols, rows);
+        h = mix(h, tickCount);
+        h = mix(h, (long) gravity << 32 | (gravityAcc & 0xFFFFFFFFL));
+        h = board.hash(h);
+        h = p1.hash(h);
+        h = p2.hash(h);
+        h = s1.hash(h);
+        h = s2.hash(h);
+        if (detonateWinner != 0) {
+            h = mix(h, (long) detonateX << 32 | (detonateY & 0xFFFFFFFFL));
+            h = mix(h, detonateWinner);
+        }
+        return h;
+    }
+
+    /** One step of the state hash: fold v into h. */
+    static long mix(long h, long v) {
+        h = (h ^ v) * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 32);
+    }
+
+    // ─── Accessors ────────────────────────────────────────────
+
+    public Board getBoard() {
+        return board;
+    }
+
+    public Player getPlayer(int playerId) {
+        return playerId == 1 ? p1 : p2;
+    }
+
+    public InputSampler getInput(int playerId) {
+        return playerId == 1 ? s1 : s2;
+    }
+
+    /** DAS, ARR and soft-drop rate in ticks for both players. */
+    public void setHandling(int das, int arr, int softDrop) {
+        s1.setHandling(das, arr, softDrop);
+        s2.setHandling(das, arr, softDrop);
+    }
+
+    public boolean isOver() {
+        return p1.hasLost() || p2.hasLost();
+    }
+
+    /** Surviving player once the match is over, otherwise 0. */
+    public int getWinner() {
+        if (!isOver())
+            return 0;
+        return p1.hasLost() ? 2 : 1;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public boolean isWackyMode() {
+        return wackyMode;
+    }
+
+    public int getNumCols() {
+        return cols;
+    }
+
+    public int getNumRows() {
+        return rows;
+    }
+}
@@ -0,0 +1,43 @@
+package src;
+// GameListener.java
+
+import java.awt.Point;
+import java.util.List;
+
+/**
+ * Presentation hooks fired by {@link GameEngine}: sounds, flashes and the
+ * end of the match. The engine never draws or plays anything itself, so
+ * every method defaults to doing nothing.
+ */
+public interface GameListener {
+    GameListener NONE = new GameListener() {
+    };
+
+    /** A piece was fixed to the board; lines is how many rows it cleared. */
+    default void onLock(int playerId, int lines, boolean hardDrop, List<Point> tiles) {
+    }
+
+    /** A horizontal move succeeded. */
+    default void onMove(int playerId) {
+    }
+
+    /** A rotation (possibly kicked) succeeded. */
+    default void onRotate(int playerId) {
+    }
+
+    /** Hold was pressed while not allowed; fired once per piece. */
+    default void onHoldRefused(int playerId) {
+    }
+
+    /** Two falling pieces merged; winnerId now controls the merged piece. */
+    default void onMerge(int winnerId, int mergeCount) {
+    }
+
+    /** An over-merged piece blew up at (x,y). */
+    default void onDetonation(int x, int y) {
+    }
+
+    /** Someone topped out; winnerId is the survivor. */
+    default void onGameOver(int winnerId) {
+    }
+}
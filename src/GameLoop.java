@@ -0,0 +1,250 @@
+package src;
+// GameLoop.java
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+/**
+ * Runs a {@link GameEngine} on its own simulation thread, which is the only
+ * thread that ever touches the engine while the loop is running. Other
+ * threads talk to it in two directions:
+ * <ul>
+ * <li>input goes in through {@link #submit(long)}, a lock-free queue of
+ * commands stamped with the time they were sent. Each tick applies the
+ * ones sent before it fell due, so a key edge lands on the tick it
+ * happened in even when several ticks run back to back;</li>
+ * <li>state comes out through {@link #snapshot()}: after each batch of ticks
+ * the loop fills a {@link GameSnapshot} and publishes it through a triple
+ * buffer, so the reader never waits and never sees a half-written tick.</li>
+ * </ul>
+ * Listener callbacks run on the simulation thread.
+ */
+public class GameLoop {
+    private static final int FRESH = 4;     // flag bit beside a 2-bit buffer index
+
+    private final GameEngine engine;
+    private final RollbackSession session;  // null for a local match
+    private final TickScheduler scheduler;
+    private final Runnable onPublish;
+    private final InputQueue input = new InputQueue(256);
+    private final LongConsumer apply;
+    private final LongConsumer stage;
+    private final Runnable tick;
+
+    // commands taken off the queue but not yet due
+    private final long[] pending = new long[256];
+    private int pendingHead, pendingCount;
+
+    // triple buffer: the writer fills back, swaps it into middle; the reader
+    // swaps middle into front when FRESH is set
+    private final GameSnapshot[] buffers = new GameSnapshot[3];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;
+    private int front = 2;
+    private long published;
+    private volatile long drawStamp;
+
+    private volatile boolean running = false;
+    private volatile boolean paused = false;
+    private Thread thread;
+
+    /** onPublish (may be null) is called on the simulation thread after each publish. */
+    public GameLoop(GameEngine engine, TickScheduler scheduler, Runnable onPublish) {
+        this(engine, null, engine::apply, engine::tick, scheduler, onPublish);
+    }
+
+    /**
+     * Drive a networked match: submitted key edges become the session's
+     * local keys and each tick advances the session, which ticks (and
+     * rolls back) the engine. Pausing is not supported.
+     */
+    public GameLoop(RollbackSession session, TickScheduler scheduler, Runnable onPublish) {
+        this(session.getEngine(), session, session::input, session::advance, scheduler, onPublish);
+    }
+
+    private GameLoop(GameEngine engine, RollbackSession session, LongConsumer apply, Runnable step,
+            TickScheduler scheduler, Runnable onPublish) {
+        this.engine = engine;
+        this.session = session;
+        this.apply = apply;
+        this.scheduler = scheduler;
+        this.onPublish = onPublish;
+        for (int i = 0; i < buffers.length; i++)
+            buffers[i] = new GameSnapshot(engine.getNumCols(), engine.getNumRows());
+        stage = this::stage;
+        tick = () -> {
+            input.drain(stage);
+            applyDue(stampOf(scheduler.getTickTime()));
+            step.run();
+        };
+        publish();
+    }
+
+    /** Start the simulation thread (after an engine reset, for instance). */
+    public void start() {
+        if (thread != null)
+            throw new IllegalStateException("already running");
+        running = true;
+        // the thread is not running yet, so this thread may still read the engine
+        input.clear();
+        pendingCount = 0;
+        publish();
+        thread = new Thread(this::run, "simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the simulation thread and wait for it to exit; afterwards the
+     * caller may use the engine directly until the next {@link #start()}.
+     */
+    public void stop() {
+        running = false;
+        Thread t = thread;
+        thread = null;
+        if (t == null || t == Thread.currentThread())
+            return;
+        // wake it rather than interrupt it: an interrupt would close the
+        // replay file's channel if it landed during a write
+        LockSupport.unpark(t);
+        boolean interrupted = false;
+        while (t.isAlive()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void run() {
+        scheduler.reset(System.nanoTime());
+        while (running && pump(System.nanoTime()))
+            scheduler.awaitNextTick();
+        publish();
+    }
+
+    /**
+     * Run the ticks due by now and publish if any ran; false once the match
+     * is over. {@link #start()} calls this from its own thread. A host
+     * running many matches on a shared pool calls it instead, never
+     * starting the loop: calls must not overlap, and that pool's threads
+     * then own the engine.
+     */
+    public boolean pump(long now) {
+        if (isOver())
+            return false;
+        boolean p = paused && session == null;
+        if (p && !scheduler.isPaused())
+            releaseKeys();
+        scheduler.setPaused(p, now);
+        if (p)
+            input.clear();      // keys pressed while paused do nothing
+        else if (scheduler.advance(now, tick) > 0)
+            publish();
+        return !isOver();
+    }
+
+    // ─── Input timing ─────────────────────────────────────────
+
+    // stamps are nanoTime / 1024 in 32 bits: about a microsecond, wrapping
+    // after an hour, compared with wrap-safe subtraction
+    private static int stampOf(long nanos) {
+        return (int) (nanos >> 10);
+    }
+
+    private void stage(long command) {
+        if (pendingCount == pending.length) {
+            // hopelessly behind: apply the oldest now rather than lose it
+            apply.accept(pending[pendingHead]);
+            pendingHead = (pendingHead + 1) % pending.length;
+            pendingCount--;
+        }
+        pending[(pendingHead + pendingCount) % pending.length] = command;
+        pendingCount++;
+    }
+
+    private void applyDue(int now) {
+        while (pendingCount > 0) {
+            long command = pending[pendingHead];
+            if ((int) (command >>> 32) - now > 0)
+                break;
+            apply.accept(command);
+            pendingHead = (pendingHead + 1) % pending.length;
+            pendingCount--;
+        }
+    }
+
+    /** Drop queued input and let go of every held key. */
+    private void releaseKeys() {
+        pendingCount = 0;
+        engine.apply(GameEngine.command(GameEngine.CMD_RELEASE_ALL, 1, 0));
+        engine.apply(GameEngine.command(GameEngine.CMD_RELEASE_ALL, 2, 0));
+    }
+
+    private void publish() {
+        buffers[back].capture(engine, ++published);
+        drawStamp = buffers[back].drawStamp();
+        back = middle.getAndSet(back | FRESH) & 3;
+        if (onPublish != null)
+            onPublish.run();
+    }
+
+    /**
+     * Latest published state. Only one thread may read snapshots; the
+     * returned object stays unchanged until that thread calls this again.
+     */
+    public GameSnapshot snapshot() {
+        if ((middle.get() & FRESH) != 0)
+            front = middle.getAndSet(front) & 3;
+        return buffers[front];
+    }
+
+    /**
+     * {@link GameSnapshot#drawStamp()} of the latest published state; any
+     * thread may call this, e.g. from onPublish to skip ticks that changed
+     * nothing on screen.
+     */
+    public long getDrawStamp() {
+        return drawStamp;
+    }
+
+    /**
+     * Queue a command for the tick that covers this moment; false if the
+     * queue was full. Only one thread may submit.
+     */
+    public boolean submit(long command) {
+        long stamped = (command & 0xFFFFFFFFL) | (long) stampOf(System.nanoTime()) << 32;
+        return input.offer(stamped);
+    }
+
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /** A networked match is only over once both sides agree it is. */
+    private boolean isOver() {
+        return session != null ? session.isOver() : engine.isOver();
+    }
+
+    /** True from start() until stop(), even after the match has ended. */
+    public boolean isRunning() {
+        return running;
+    }
+
+    public GameEngine getEngine() {
+        return engine;
+    }
+
+    /** The networked match this loop drives, or null. */
+    public RollbackSession getSession() {
+        return session;
+    }
+}
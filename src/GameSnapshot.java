@@ -0,0 +1,331 @@
+package src;
+// GameSnapshot.java
+
+import java.awt.Point;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Everything a renderer needs from one simulated tick: the board in logical
+ * row order, both falling pieces with their ghosts, hold, the next queue and
+ * scores. Filled in by the simulation thread and then only read; see
+ * {@link GameLoop#snapshot()} for how it changes hands.
+ */
+public final class GameSnapshot {
+    private final int cols, rows;
+    private final short[] cells;        // cells[y * cols + x], logical rows
+    private final long[] rowVersion;    // journal version each row was copied at
+    private final PlayerView p1 = new PlayerView(1), p2 = new PlayerView(2);
+    private long boardVersion;
+    private long tick;
+    private long sequence;
+    private int winner;
+
+    GameSnapshot(int cols, int rows) {
+        this.cols = cols;
+        this.rows = rows;
+        this.cells = new short[cols * rows];
+        this.rowVersion = new long[rows];
+        Arrays.fill(rowVersion, -1);
+    }
+
+    /** Copy the engine's current state in; rows that did not change are skipped. */
+    void capture(GameEngine engine, long sequence) {
+        Board board = engine.getBoard();
+        BoardJournal journal = board.getJournal();
+        for (int y = 0; y < rows; y++) {
+            long v = journal.getRowVersion(y);
+            if (v != rowVersion[y]) {
+                board.copyRow(y, cells, y * cols);
+                rowVersion[y] = v;
+            }
+        }
+        boardVersion = journal.getVersion();
+        tick = engine.getTickCount();
+        winner = engine.getWinner();
+        this.sequence = sequence;
+        p1.capture(engine.getPlayer(1));
+        p2.capture(engine.getPlayer(2));
+    }
+
+    public int getNumCols() {
+        return cols;
+    }
+
+    public int getNumRows() {
+        return rows;
+    }
+
+    /** Packed cell at (x,y); decode with the static Cell helpers. */
+    public short getPacked(int x, int y) {
+        return cells[y * cols + x];
+    }
+
+    /** Board journal version of row y when it was captured. */
+    public long getRowVersion(int y) {
+        return rowVersion[y];
+    }
+
+    public long getBoardVersion() {
+        return boardVersion;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    /** Increases with every published snapshot. */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public PlayerView getPlayer(int playerId) {
+        return playerId == 1 ? p1 : p2;
+    }
+
+    public boolean isOver() {
+        return winner != 0;
+    }
+
+    /** Surviving player once the match is over, otherwise 0. */
+    public int getWinner() {
+        return winner;
+    }
+
+    // ─── Wire form ────────────────────────────────────────────
+    //
+    // What a spectator needs to redraw the match: rows are sent on their
+    // own (only the changed ones, usually), then the rest. See
+    // SpectatorServer for the framing.
+
+    /** Write logical row y (cols shorts). */
+    void writeRow(ByteBuffer out, int y) {
+        for (int x = 0; x < cols; x++)
+            out.putShort(cells[y * cols + x]);
+    }
+
+    void readRow(ByteBuffer in, int y) {
+        for (int x = 0; x < cols; x++)
+            cells[y * cols + x] = in.getShort();
+        rowVersion[y] = ++boardVersion;
+    }
+
+    /** Bytes {@link #writeRest} writes. */
+    int restSize() {
+        return 9 + p1.wireSize() + p2.wireSize();
+    }
+
+    /** Write everything but the board: tick, winner and both players. */
+    void writeRest(ByteBuffer out) {
+        out.putLong(tick);
+        out.put((byte) winner);
+        p1.write(out);
+        p2.write(out);
+    }
+
+    void readRest(ByteBuffer in, long sequence) {
+        tick = in.getLong();
+        winner = in.get();
+        p1.read(in);
+        p2.read(in);
+        this.sequence = sequence;
+    }
+
+    /**
+     * Hash of everything a spectator sees, so a copy rebuilt from the wire
+     * can be checked against the original.
+     */
+    public long viewHash() {
+        long h = GameEngine.mix(cols, rows);
+        for (short c : cells)
+            h = GameEngine.mix(h, c);
+        h = GameEngine.mix(h, tick);
+        h = GameEngine.mix(h, winner);
+        h = p1.hash(h);
+        return p2.hash(h);
+    }
+
+    /**
+     * Hash of what a renderer draws from this snapshot, leaving out the
+     * tick count: two ticks with the same stamp look the same on screen.
+     */
+    public long drawStamp() {
+        long h = GameEngine.mix(boardVersion, winner);
+        h = p1.hash(h);
+        return p2.hash(h);
+    }
+
+    /** One player's side of the snapshot. */
+    public static final class PlayerView {
+        private final int playerId;
+        private int shape, mergeCount;
+        private int[] tileX = new int[4], tileY = new int[4];
+        private int[] ghostX = new int[4], ghostY = new int[4];
+        private int tileCount;
+        private int holdShape = -1;
+        private boolean holdUsed;
+        private final int[] next = new int[5];
+        private int nextCount;
+        private long score;
+        private boolean lost;
+
+        PlayerView(int playerId) {
+            this.playerId = playerId;
+        }
+
+        void capture(Player p) {
+            Tetramino piece = p.getCurrentPiece();
+            shape = piece.getShapeID();
+            mergeCount = piece.getMergeCount();
+            int n = piece.size();
+            if (tileX.length < n) {
+                tileX = new int[n];
+                tileY = new int[n];
+                ghostX = new int[n];
+                ghostY = new int[n];
+            }
+            for (int i = 0; i < n; i++) {
+                tileX[i] = piece.tileX(i);
+                tileY[i] = piece.tileY(i);
+            }
+            List<Point> ghost = p.getGhostTiles();
+            for (int i = 0; i < n; i++) {
+                Point g = ghost.get(i);
+                ghostX[i] = g.x;
+                ghostY[i] = g.y;
+            }
+            tileCount = n;
+            Tetramino held = p.getHoldPiece();
+            holdShape = held != null ? held.getShapeID() : -1;
+            holdUsed = p.hasHoldUsed();
+            nextCount = p.peekNext(next);
+            score = p.getScore();
+            lost = p.hasLost();
+        }
+
+        int wireSize() {
+            return 15 + tileCount * 8 + nextCount;
+        }
+
+        // shape, merge count, tile count, tiles and ghost tiles (x, y shorts),
+        // hold shape, flags (1 = hold used, 2 = lost), next count, next, score
+        void write(ByteBuffer out) {
+            out.put((byte) shape);
+            out.put((byte) mergeCount);
+            out.putShort((short) tileCount);
+            for (int i = 0; i < tileCount; i++) {
+                out.putShort((short) tileX[i]);
+                out.putShort((short) tileY[i]);
+                out.putShort((short) ghostX[i]);
+                out.putShort((short) ghostY[i]);
+            }
+            out.put((byte) holdShape);
+            out.put((byte) ((holdUsed ? 1 : 0) | (lost ? 2 : 0)));
+            out.put((byte) nextCount);
+            for (int i = 0; i < nextCount; i++)
+                out.put((byte) next[i]);
+            out.putLong(score);
+        }
+
+        void read(ByteBuffer in) {
+            shape = in.get();
+            mergeCount = in.get();
+            int n = in.getShort();
+            if (tileX.length < n) {
+                tileX = new int[n];
+                tileY = new int[n];
+                ghostX = new int[n];
+                ghostY = new int[n];
+            }
+            for (int i = 0; i < n; i++) {
+                tileX[i] = in.getShort();
+                tileY[i] = in.getShort();
+                ghostX[i] = in.getShort();
+                ghostY[i] = in.getShort();
+            }
+            tileCount = n;
+            holdShape = in.get();
+            int flags = in.get();
+            holdUsed = (flags & 1) != 0;
+            lost = (flags & 2) != 0;
+            int m = in.get();
+            nextCount = Math.min(m, next.length);
+            for (int i = 0; i < m; i++) {
+                byte shapeId = in.get();
+                if (i < next.length)
+                    next[i] = shapeId;
+            }
+            score = in.getLong();
+        }
+
+        long hash(long h) {
+            h = GameEngine.mix(h, shape | mergeCount << 8 | holdShape << 16);
+            for (int i = 0; i < tileCount; i++)
+                h = GameEngine.mix(h, tileX[i] << 16 | tileY[i] & 0xFFFF);
+            for (int i = 0; i < tileCount; i++)
+                h = GameEngine.mix(h, ghostX[i] << 16 | ghostY[i] & 0xFFFF);
+            for (int i = 0; i < nextCount; i++)
+                h = GameEngine.mix(h, next[i]);
+            h = GameEngine.mix(h, (holdUsed ? 1 : 0) | (lost ? 2 : 0));
+            return GameEngine.mix(h, score);
+        }
+
+        public int getPlayerId() {
+            return playerId;
+        }
+
+        public int getShapeId() {
+            return shape;
+        }
+
+        public int getMergeCount() {
+            return mergeCount;
+        }
+
+        public int tileCount() {
+            return tileCount;
+        }
+
+        public int tileX(int i) {
+            return tileX[i];
+        }
+
+        public int tileY(int i) {
+            return tileY[i];
+        }
+
+        public int ghostX(int i) {
+            return ghostX[i];
+        }
+
+        public int ghostY(int i) {
+            return ghostY[i];
+        }
+
+        /** Held shape id, or -1 if nothing is held. */
+        public int getHoldShape() {
+            return holdShape;
+        }
+
+        public boolean hasHoldUsed() {
+            return holdUsed;
+        }
+
+        public int nextCount() {
+            return nextCount;
+        }
+
+        public int next(int i) {
+            return next[i];
+        }
+
+        public long getScore() {
+            return score;
+        }
+
+        public boolean hasLost() {
+            return lost;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package src;
+// GameState.java
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable copy of a {@link GameEngine}'s complete state, for rollback,
+ * bots and undo. Get one from {@link GameEngine#newState()}, then fill and
+ * rewind it with {@link GameEngine#save(GameState)} and
+ * {@link GameEngine#restore(GameState)} as often as needed: the buffers
+ * are allocated once and only grow if a merged piece outgrows them.
+ */
+public final class GameState {
+    final Board.State board;
+    ByteBuffer data;            // scalars and players, as GameEngine.saveState writes them
+    int size;                   // bytes of data in use
+    long tick = -1;
+
+    GameState(Board.State board, int dataSize) {
+        this.board = board;
+        this.data = ByteBuffer.allocate(Math.max(256, dataSize * 2));
+    }
+
+    /** Cleared data buffer with room for at least size bytes. */
+    ByteBuffer data(int size) {
+        if (data.capacity() < size)
+            data = ByteBuffer.allocate(size * 2);
+        data.clear();
+        return data;
+    }
+
+    /**
+     * Hash of the saved state. Equal states hash the same on any machine,
+     * so two peers can compare states they saved at the same tick.
+     */
+    public long hash() {
+        long h = board.hash(size);
+        int i = 0;
+        for (; i + 8 <= size; i += 8)
+            h = GameEngine.mix(h, data.getLong(i));
+        for (; i < size; i++)
+            h = GameEngine.mix(h, data.get(i));
+        return h;
+    }
+
+    /** Tick the state was saved at, or -1 if it was never filled. */
+    public long getTick() {
+        return tick;
+    }
+}
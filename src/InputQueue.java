@@ -0,0 +1,56 @@
+package src;
+// InputQueue.java
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Lock-free single-producer / single-consumer ring of packed commands
+ * (see {@link GameEngine#command}). The UI thread offers, the simulation
+ * thread drains; neither ever blocks or allocates.
+ */
+public class InputQueue {
+    private final long[] ring;
+    private final int mask;
+
+    // head is only advanced by the consumer, tail only by the producer;
+    // lazySet publishes a slot after it has been written
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private long cachedHead;            // producer's last look at head
+
+    /** capacity is rounded up to a power of two. */
+    public InputQueue(int capacity) {
+        int n = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        ring = new long[n];
+        mask = n - 1;
+    }
+
+    /** Producer side: queue a command, or return false if the ring is full. */
+    public boolean offer(long command) {
+        long t = tail.get();
+        if (t - cachedHead == ring.length) {
+            cachedHead = head.get();
+            if (t - cachedHead == ring.length)
+                return false;
+        }
+        ring[(int) (t & mask)] = command;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /** Consumer side: hand every queued command to sink, oldest first. */
+    public int drain(LongConsumer sink) {
+        long h = head.get();
+        long t = tail.get();
+        for (long i = h; i < t; i++)
+            sink.accept(ring[(int) (i & mask)]);
+        head.lazySet(t);
+        return (int) (t - h);
+    }
+
+    /** Consumer side: throw away everything queued so far. */
+    public void clear() {
+        head.lazySet(tail.get());
+    }
+}
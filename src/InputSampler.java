@@ -0,0 +1,182 @@
+package src;
+// InputSampler.java
+
+import java.nio.ByteBuffer;
+
+/**
+ * One player's held keys, resolved once per tick. Key edges come in
+ * between ticks; {@link #update()} then turns what is held into moves with
+ * delayed auto shift (DAS) and auto repeat (ARR) counted in ticks, so the
+ * same edges on the same ticks always produce the same moves.
+ *
+ * Rotate, hard drop and hold act on the press edge only. Left/right move
+ * once on press, then again after {@code das} ticks and every {@code arr}
+ * ticks after that (0 = straight to the wall). Soft drop drops on press and
+ * every {@code softDrop} ticks while held.
+ */
+public class InputSampler {
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+    public static final int SOFT_DROP = 2;
+    public static final int HARD_DROP = 3;
+    public static final int ROTATE_CW = 4;
+    public static final int ROTATE_CCW = 5;
+    public static final int HOLD = 6;
+    public static final int KEY_COUNT = 7;
+
+    private final GameEngine game;
+    private final int playerId;
+
+    private int das = 12, arr = 3, softDrop = 2;
+
+    private int held;           // bit per key
+    private int shiftDir;       // -1, 0, +1: the most recently pressed of left/right
+    private int shiftTicks;     // ticks shiftDir has been held
+    private int dropTicks;      // ticks soft drop has been held
+
+    InputSampler(GameEngine game, int playerId) {
+        this.game = game;
+        this.playerId = playerId;
+    }
+
+    /** Handling in ticks (up to 255); arr 0 means instant, softDrop is at least 1. */
+    public void setHandling(int das, int arr, int softDrop) {
+        if (das < 0 || arr < 0 || softDrop < 1 || (das | arr | softDrop) > 255)
+            throw new IllegalArgumentException("bad handling: das=" + das + " arr=" + arr + " sd=" + softDrop);
+        this.das = das;
+        this.arr = arr;
+        this.softDrop = softDrop;
+    }
+
+    public void keyDown(int key) {
+        int bit = 1 << key;
+        if ((held & bit) != 0)
+            return;             // OS auto-repeat; we do our own
+        held |= bit;
+        switch (key) {
+            case LEFT:
+                startShift(-1);
+                break;
+            case RIGHT:
+                startShift(+1);
+                break;
+            case SOFT_DROP:
+                dropTicks = 0;
+                game.softDrop(playerId);
+                break;
+            case HARD_DROP:
+                game.hardDrop(playerId);
+                break;
+            case ROTATE_CW:
+                game.rotate(playerId, +1);
+                break;
+            case ROTATE_CCW:
+                game.rotate(playerId, -1);
+                break;
+            case HOLD:
+                game.hold(playerId);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public void keyUp(int key) {
+        held &= ~(1 << key);
+        if (key == LEFT || key == RIGHT) {
+            // fall back to the other direction if it is still down
+            int left = held & (1 << LEFT), right = held & (1 << RIGHT);
+            int dir = right != 0 ? +1 : left != 0 ? -1 : 0;
+            if (dir != shiftDir) {
+                shiftDir = dir;
+                shiftTicks = 0;
+            }
+        }
+    }
+
+    /** Let go of everything (pause, focus loss). */
+    public void releaseAll() {
+        held = 0;
+        shiftDir = 0;
+        shiftTicks = 0;
+        dropTicks = 0;
+    }
+
+    private void startShift(int dir) {
+        shiftDir = dir;
+        shiftTicks = 0;
+        game.move(playerId, dir);
+    }
+
+    /** Apply auto shift and soft drop for one tick. */
+    void update() {
+        if (shiftDir != 0) {
+            shiftTicks++;
+            if (shiftTicks >= das) {
+                if (arr == 0) {
+                    while (game.move(playerId, shiftDir)) {
+                        // slide to the wall
+                    }
+                } else if ((shiftTicks - das) % arr == 0) {
+                    game.move(playerId, shiftDir);
+                }
+            }
+        }
+        if ((held & (1 << SOFT_DROP)) != 0) {
+            dropTicks++;
+            if (dropTicks % softDrop == 0)
+                game.softDrop(playerId);
+        }
+    }
+
+    static final int STATE_SIZE = 13;
+
+    /** Write handling and held-key state (STATE_SIZE bytes). */
+    void save(ByteBuffer out) {
+        out.put((byte) das);
+        out.put((byte) arr);
+        out.put((byte) softDrop);
+        out.put((byte) held);
+        out.put((byte) shiftDir);
+        out.putInt(shiftTicks);
+        out.putInt(dropTicks);
+    }
+
+    void load(ByteBuffer in) {
+        das = in.get() & 0xFF;
+        arr = in.get() & 0xFF;
+        softDrop = in.get() & 0xFF;
+        held = in.get();
+        shiftDir = in.get();
+        shiftTicks = in.getInt();
+        dropTicks = in.getInt();
+    }
+
+    /** Fold handling and held-key state into a running state hash. */
+    long hash(long h) {
+        h = GameEngine.mix(h, das | arr << 8 | softDrop << 16);
+        h = GameEngine.mix(h, held | (shiftDir & 3) << 8);
+        return GameEngine.mix(h, (long) shiftTicks << 32 | (dropTicks & 0xFFFFFFFFL));
+    }
+
+    /** Bit per held key. */
+    int heldKeys() {
+        return held;
+    }
+
+    public boolean isHeld(int key) {
+        return (held & (1 << key)) != 0;
+    }
+
+    public int getDas() {
+        return das;
+    }
+
+    public int getArr() {
+        return arr;
+    }
+
+    public int getSoftDrop() {
+        return softDrop;
+    }
+}
@@ -0,0 +1,106 @@
+package src;
+// LoopbackTransport.java
+
+import java.nio.ByteBuffer;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * In-process {@link Transport} for testing networked play on one machine.
+ * {@link #pair} returns two connected ends; each packet is delivered after
+ * the one-way latency plus a random jitter (so packets can overtake each
+ * other) or is lost with the given probability.
+ */
+public class LoopbackTransport implements Transport {
+    private static final class Packet implements Comparable<Packet> {
+        final long due;
+        final long order;
+        final byte[] data;
+
+        Packet(long due, long order, byte[] data) {
+            this.due = due;
+            this.order = order;
+            this.data = data;
+        }
+
+        @Override
+        public int compareTo(Packet o) {
+            int c = Long.compare(due, o.due);
+            return c != 0 ? c : Long.compare(order, o.order);
+        }
+    }
+
+    /** One direction of the link; guarded by its own monitor. */
+    private static final class Link {
+        final PriorityQueue<Packet> queue = new PriorityQueue<>();
+        final Random random;
+        long sent;
+
+        Link(long seed) {
+            random = new Random(seed);
+        }
+    }
+
+    private final Link in, out;
+    private final long latencyNanos, jitterNanos;
+    private final double loss;
+    private volatile boolean closed;
+
+    private LoopbackTransport(Link in, Link out, long latencyNanos, long jitterNanos, double loss) {
+        this.in = in;
+        this.out = out;
+        this.latencyNanos = latencyNanos;
+        this.jitterNanos = jitterNanos;
+        this.loss = loss;
+    }
+
+    /**
+     * Two connected ends. latencyMillis is one way (half the round trip),
+     * jitterMillis is added uniformly at random, loss is between 0 and 1.
+     */
+    public static LoopbackTransport[] pair(int latencyMillis, int jitterMillis, double loss, long seed) {
+        if (latencyMillis < 0 || jitterMillis < 0 || loss < 0 || loss > 1)
+            throw new IllegalArgumentException("bad link: latency=" + latencyMillis
+                    + " jitter=" + jitterMillis + " loss=" + loss);
+        Link ab = new Link(seed), ba = new Link(~seed);
+        long lat = latencyMillis * 1_000_000L, jit = jitterMillis * 1_000_000L;
+        return new LoopbackTransport[] {
+                new LoopbackTransport(ba, ab, lat, jit, loss),
+                new LoopbackTransport(ab, ba, lat, jit, loss) };
+    }
+
+    @Override
+    public void send(ByteBuffer packet) {
+        byte[] data = new byte[packet.remaining()];
+        packet.get(data);
+        if (closed)
+            return;
+        long now = System.nanoTime();
+        synchronized (out) {
+            if (out.random.nextDouble() < loss)
+                return;
+            long due = now + latencyNanos
+                    + (jitterNanos > 0 ? (long) (out.random.nextDouble() * jitterNanos) : 0);
+            out.queue.add(new Packet(due, out.sent++, data));
+        }
+    }
+
+    @Override
+    public boolean receive(ByteBuffer buf) {
+        Packet p;
+        synchronized (in) {
+            p = in.queue.peek();
+            if (p == null || p.due - System.nanoTime() > 0)
+                return false;
+            in.queue.poll();
+        }
+        // an oversized packet is truncated, as a datagram socket would
+        buf.put(p.data, 0, Math.min(p.data.length, buf.remaining()));
+        return true;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
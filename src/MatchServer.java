@@ -0,0 +1,370 @@
+package src;
+// MatchServer.java
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hosts many headless matches in one JVM. Every match is a {@link GameLoop}
+ * pumped by a periodic task on one shared scheduled pool, so a thousand
+ * matches need a handful of threads rather than a thousand.
+ *
+ * <ul>
+ * <li>Admission: {@link #start} refuses a match once {@code maxMatches}
+ * are running, or while the pool was more than {@link #MAX_LOAD} busy
+ * over the last second or let ticks drop.</li>
+ * <li>Budget: a pump that takes longer than {@code tickBudgetNanos} per
+ * tick it ran counts as an overrun, for the match and the server. A
+ * match the pool cannot keep up with drops ticks (see
+ * {@link TickScheduler}) instead of falling ever further behind.</li>
+ * <li>Metrics: matches, load, ticks, dropped ticks, overruns and a pump
+ * time histogram, refreshed once a second.</li>
+ * </ul>
+ */
+public class MatchServer implements Closeable {
+    /** Busy fraction of the pool above which new matches are refused. */
+    public static final double MAX_LOAD = 0.75;
+
+    /** One hosted match. Its input must come from one thread at a time. */
+    public final class Match {
+        private final long id;
+        private final GameEngine engine;
+        private final TickScheduler clock;
+        private final GameLoop loop;
+        private volatile ScheduledFuture<?> task;  // null until start() has scheduled it
+        private volatile boolean over;
+        private volatile long busyNanos, maxPumpNanos, overruns;
+
+        private Match(long id, GameEngine engine) {
+            this.id = id;
+            this.engine = engine;
+            this.clock = new TickScheduler(GameEngine.TICK_RATE, 5);
+            this.loop = new GameLoop(engine, clock, null);
+        }
+
+        private void pump() {
+            long t0 = System.nanoTime();
+            long before = clock.getTicks(), droppedBefore = clock.getDroppedTicks();
+            boolean alive = loop.pump(t0);
+            long dt = System.nanoTime() - t0;
+            long ran = clock.getTicks() - before;
+
+            busyNanos += dt;
+            maxPumpNanos = Math.max(maxPumpNanos, dt);
+            totalBusy.addAndGet(dt);
+            totalTicks.addAndGet(ran);
+            totalDropped.addAndGet(clock.getDroppedTicks() - droppedBefore);
+            histogram.incrementAndGet(Math.min(63 - Long.numberOfLeadingZeros(Math.max(1, dt)), 31));
+            if (ran > 0 && dt > ran * tickBudget) {
+                overruns++;
+                totalOverruns.incrementAndGet();
+            }
+            if (!alive)
+                finish();
+        }
+
+        private void finish() {
+            if (over)
+                return;
+            over = true;
+            // if start() has not stored the task yet, it cancels it itself
+            ScheduledFuture<?> t = task;
+            if (t != null)
+                t.cancel(false);
+            if (matches.remove(this))
+                finished.incrementAndGet();
+        }
+
+        /** Queue a command (see {@link GameEngine#command}) for the next tick. */
+        public boolean submit(long command) {
+            return !over && loop.submit(command);
+        }
+
+        /** Latest published state; one reader per match. */
+        public GameSnapshot snapshot() {
+            return loop.snapshot();
+        }
+
+        /** Stop the match early. */
+        public void end() {
+            finish();
+        }
+
+        public boolean isOver() {
+            return over;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getSeed() {
+            return engine.getSeed();
+        }
+
+        public long getTicks() {
+            return clock.getTicks();
+        }
+
+        public long getDroppedTicks() {
+            return clock.getDroppedTicks();
+        }
+
+        /** Time spent pumping this match so far. */
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+        public long getMaxPumpNanos() {
+            return maxPumpNanos;
+        }
+
+        public long getOverruns() {
+            return overruns;
+        }
+    }
+
+    private final ScheduledThreadPoolExecutor pool;
+    private final int threads;
+    private final int maxMatches;
+    private final long tickBudget;
+    private final Set<Match> matches = ConcurrentHashMap.newKeySet();
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong admitted = new AtomicLong(), rejected = new AtomicLong(), finished = new AtomicLong();
+    private final AtomicLong totalBusy = new AtomicLong(), totalTicks = new AtomicLong();
+    private final AtomicLong totalDropped = new AtomicLong(), totalOverruns = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(32);  // pumps by log2(nanos)
+
+    // refreshed once a second by the metrics task
+    private volatile double load;
+    private volatile long ticksPerSecond, droppedPerSecond, overrunsPerSecond;
+    private long lastSample, lastBusy, lastTicks, lastDropped, lastOverruns;
+
+    /**
+     * threads: size of the shared pool; maxMatches: hard cap on running
+     * matches; tickBudgetNanos: most one tick of one match should take.
+     */
+    public MatchServer(int threads, int maxMatches, long tickBudgetNanos) {
+        if (threads < 1 || maxMatches < 1 || tickBudgetNanos < 1)
+            throw new IllegalArgumentException("threads, match limit and budget must be positive");
+        this.threads = threads;
+        this.maxMatches = maxMatches;
+        this.tickBudget = tickBudgetNanos;
+        pool = new ScheduledThreadPoolExecutor(threads, r -> {
+            Thread t = new Thread(r, "matches");
+            t.setDaemon(true);
+            return t;
+        });
+        pool.setRemoveOnCancelPolicy(true);
+        lastSample = System.nanoTime();
+        pool.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Start a match and return it, or throw RejectedExecutionException if
+     * the server is full or too busy to take another.
+     */
+    public Match start(int cols, int rows, boolean wackyMode, long seed) {
+        if (matches.size() >= maxMatches)
+            throw reject("server full (" + maxMatches + " matches)");
+        if (load > MAX_LOAD)
+            throw reject(String.format("server busy (%.0f%% load)", load * 100));
+        if (droppedPerSecond > 0)
+            throw reject("server behind (" + droppedPerSecond + " ticks dropped last second)");
+        Match m = new Match(nextId.incrementAndGet(), new GameEngine(cols, rows, wackyMode, seed));
+        matches.add(m);
+        admitted.incrementAndGet();
+        long period = m.clock.getTickNanos();
+        // spread first ticks over a period so matches don't all wake together
+        m.task = pool.scheduleAtFixedRate(m::pump, Math.floorMod(m.id * 7919, period), period,
+                TimeUnit.NANOSECONDS);
+        if (m.over)
+            m.task.cancel(false);   // ended before the task was stored
+        return m;
+    }
+
+    private RejectedExecutionException reject(String why) {
+        rejected.incrementAndGet();
+        return new RejectedExecutionException(why);
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        long busy = totalBusy.get(), ticks = totalTicks.get();
+        long dropped = totalDropped.get(), overruns = totalOverruns.get();
+        double seconds = (now - lastSample) / 1e9;
+        load = (busy - lastBusy) / 1e9 / (seconds * threads);
+        ticksPerSecond = Math.round((ticks - lastTicks) / seconds);
+        droppedPerSecond = Math.round((dropped - lastDropped) / seconds);
+        overrunsPerSecond = Math.round((overruns - lastOverruns) / seconds);
+        lastSample = now;
+        lastBusy = busy;
+        lastTicks = ticks;
+        lastDropped = dropped;
+        lastOverruns = overruns;
+    }
+
+    /** End every match and stop the pool. */
+    @Override
+    public void close() {
+        for (Match m : matches)
+            m.finish();
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ─── Metrics ──────────────────────────────────────────────
+
+    public int getMatchCount() {
+        return matches.size();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getFinished() {
+        return finished.get();
+    }
+
+    /** Busy fraction of the pool over the last second. */
+    public double getLoad() {
+        return load;
+    }
+
+    public long getTicksPerSecond() {
+        return ticksPerSecond;
+    }
+
+    public long getDroppedPerSecond() {
+        return droppedPerSecond;
+    }
+
+    public long getOverrunsPerSecond() {
+        return overrunsPerSecond;
+    }
+
+    public long getDroppedTicks() {
+        return totalDropped.get();
+    }
+
+    public long getOverruns() {
+        return totalOverruns.get();
+    }
+
+    /** Pump time (nanoseconds, to a power of two) that fraction q of pumps stayed under. */
+    public long pumpPercentile(double q) {
+        long total = 0;
+        for (int i = 0; i < histogram.length(); i++)
+            total += histogram.get(i);
+        long want = (long) Math.ceil(total * q), seen = 0;
+        for (int i = 0; i < histogram.length(); i++) {
+            seen += histogram.get(i);
+            if (seen >= want && seen > 0)
+                return 2L << i;
+        }
+        return 0;
+    }
+
+    // ─── Load test ────────────────────────────────────────────
+
+    /**
+     * Ramp bot matches onto a local server until admission control says it
+     * is full, then hold and report how many matches each core sustains:
+     * {@code java src.MatchServer [threads] [seconds]}.
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        MatchServer server = new MatchServer(threads, 100_000, 250_000);
+
+        // simulated clients: one periodic task per match presses both
+        // players' keys, so each match still has a single input thread
+        ScheduledThreadPoolExecutor clients = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "clients");
+            t.setDaemon(true);
+            return t;
+        });
+        clients.setRemoveOnCancelPolicy(true);
+        List<ScheduledFuture<?>> bots = new ArrayList<>();
+        Random seeds = new Random(1);
+
+        System.out.printf("%d pool threads, %d cores, tick budget 250 us%n",
+                threads, Runtime.getRuntime().availableProcessors());
+        long start = System.nanoTime(), end = start + seconds * 1_000_000_000L;
+        int peak = 0;
+        boolean full = false;
+        for (int step = 1; System.nanoTime() < end; step++) {
+            if (!full) {
+                // grow by a quarter every 200 ms until admission closes
+                int want = Math.max(50, server.getMatchCount() / 4);
+                for (int i = 0; i < want; i++) {
+                    try {
+                        Match m = server.start(10, 40, true, seeds.nextLong());
+                        bots.add(clients.scheduleAtFixedRate(bot(m, new Random(m.getSeed())),
+                                0, 50, TimeUnit.MILLISECONDS));
+                    } catch (RejectedExecutionException ex) {
+                        full = true;
+                        System.out.println("admission closed: " + ex.getMessage());
+                        break;
+                    }
+                }
+            }
+            Thread.sleep(200);
+            if (step % 5 != 0)
+                continue;
+            int n = server.getMatchCount();
+            if (server.getDroppedPerSecond() == 0)
+                peak = Math.max(peak, n);
+            System.out.printf("%5.1f s: %6d matches, %5.1f%% load, %8d ticks/s, %d dropped/s, %d overruns/s,"
+                    + " pump p50 %d us p99 %d us%n",
+                    (System.nanoTime() - start) / 1e9, n, server.getLoad() * 100,
+                    server.getTicksPerSecond(), server.getDroppedPerSecond(), server.getOverrunsPerSecond(),
+                    server.pumpPercentile(0.5) / 1000, server.pumpPercentile(0.99) / 1000);
+        }
+        for (ScheduledFuture<?> b : bots)
+            b.cancel(false);
+        clients.shutdownNow();
+        long finished = server.getFinished();
+        server.close();
+        System.out.printf("sustained %d matches without dropping ticks: %.0f per pool thread;"
+                + " %d admitted, %d finished, %d rejected%n",
+                peak, (double) peak / threads, server.getAdmitted(), finished, server.getRejected());
+    }
+
+    private static Runnable bot(Match m, Random r) {
+        return () -> {
+            if (m.isOver())
+                return;
+            for (int id = 1; id <= 2; id++) {
+                int key = r.nextInt(InputSampler.KEY_COUNT);
+                if (key == InputSampler.HARD_DROP && r.nextInt(4) != 0)
+                    key = InputSampler.SOFT_DROP;
+                int type = r.nextBoolean() ? GameEngine.CMD_KEY_DOWN : GameEngine.CMD_KEY_UP;
+                m.submit(GameEngine.command(type, id, key));
+            }
+        };
+    }
+}
@@ -0,0 +1,180 @@
+package src;
+// PieceQueue.java
+
+import java.nio.ByteBuffer;
+
+/**
+ * Upcoming shapes for one player: a ring buffer of shape ids refilled one
+ * shuffled 7-bag at a time from a seeded SplitMix64 generator, so a given
+ * seed always yields the same sequence. Nothing is boxed or allocated after
+ * construction.
+ */
+public class PieceQueue {
+    private static final int BAG = 7;
+    private static final int CAPACITY = 16;          // power of two, > 2 bags
+    private static final int MASK = CAPACITY - 1;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final byte[] ring = new byte[CAPACITY];
+    private final int[] bag = new int[BAG];
+    private int head, count;
+
+    // SplitMix64 state: seed advances by gamma on every draw
+    private long seed;
+    private long gamma;
+    private long initialSeed, initialGamma;
+
+    public PieceQueue(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    private PieceQueue(long seed, long gamma) {
+        this.initialSeed = seed;
+        this.initialGamma = gamma;
+        reset();
+    }
+
+    /**
+     * An independent queue whose sequence is fully determined by this one's
+     * seed and how many times it has been split.
+     */
+    public PieceQueue split() {
+        return new PieceQueue(nextLong(), mixGamma(nextLong()));
+    }
+
+    /** Rewind to the initial seed and empty the queue. */
+    public void reset() {
+        seed = initialSeed;
+        gamma = initialGamma;
+        head = 0;
+        count = 0;
+    }
+
+    /** Restart with a new seed. */
+    public void reseed(long newSeed) {
+        initialSeed = newSeed;
+        initialGamma = GOLDEN_GAMMA;
+        reset();
+    }
+
+    /** Remove and return the next shape id. */
+    public int next() {
+        fill(1);
+        int shape = ring[head];
+        head = (head + 1) & MASK;
+        count--;
+        return shape;
+    }
+
+    /**
+     * Copy the next out.length shapes into out without consuming them;
+     * returns out.length. The copy stays valid however the queue changes
+     * afterwards. Peeking never changes the queue's state, so a game that
+     * shows its preview hashes and saves the same as one that does not.
+     */
+    public int peek(int[] out) {
+        int n = Math.min(out.length, count);
+        for (int i = 0; i < n; i++)
+            out[i] = ring[(head + i) & MASK];
+        // shapes past the queue come from bags not shuffled yet: shuffle
+        // them here and put the generator back
+        long s = seed;
+        while (n < out.length) {
+            shuffleBag();
+            for (int i = 0; i < BAG && n < out.length; i++)
+                out[n++] = bag[i];
+        }
+        seed = s;
+        return n;
+    }
+
+    /** Shuffle in whole bags until at least n shapes are queued. */
+    private void fill(int n) {
+        while (count < n) {
+            shuffleBag();
+            for (int i = 0; i < BAG; i++)
+                ring[(head + count + i) & MASK] = (byte) bag[i];
+            count += BAG;
+        }
+    }
+
+    private void shuffleBag() {
+        for (int i = 0; i < BAG; i++)
+            bag[i] = i;
+        // Fisher–Yates
+        for (int i = BAG - 1; i > 0; i--) {
+            int j = nextInt(i + 1);
+            int t = bag[i];
+            bag[i] = bag[j];
+            bag[j] = t;
+        }
+    }
+
+    /** Bytes {@link #save} writes. */
+    public int stateSize() {
+        return 33 + count;
+    }
+
+    /** Write generator state (seeds included) and the queued shapes. */
+    public void save(ByteBuffer out) {
+        out.putLong(seed);
+        out.putLong(gamma);
+        out.putLong(initialSeed);
+        out.putLong(initialGamma);
+        out.put((byte) count);
+        for (int i = 0; i < count; i++)
+            out.put(ring[(head + i) & MASK]);
+    }
+
+    /** Restore a state written by {@link #save}. */
+    public void load(ByteBuffer in) {
+        seed = in.getLong();
+        gamma = in.getLong();
+        initialSeed = in.getLong();
+        initialGamma = in.getLong();
+        head = 0;
+        count = in.get();
+        for (int i = 0; i < count; i++)
+            ring[i] = in.get();
+    }
+
+    /** Fold generator state and queued shapes into a running state hash. */
+    public long hash(long h) {
+        h = GameEngine.mix(h, seed);
+        h = GameEngine.mix(h, gamma);
+        h = GameEngine.mix(h, count);
+        for (int i = 0; i < count; i++)
+            h = GameEngine.mix(h, ring[(head + i) & MASK]);
+        return h;
+    }
+
+    // ─── SplitMix64 ───────────────────────────────────────────
+
+    private long nextLong() {
+        seed += gamma;
+        return mix64(seed);
+    }
+
+    /** Uniform in [0, bound) by rejection, so every shape is equally likely. */
+    private int nextInt(int bound) {
+        int r = (int) (nextLong() >>> 33);
+        int limit = Integer.MAX_VALUE - (Integer.MAX_VALUE % bound);
+        while (r >= limit)
+            r = (int) (nextLong() >>> 33);
+        return r % bound;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int n = Long.bitCount(z ^ (z >>> 1));
+        return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
@@ -1,44 +1,27 @@
 package src;
 // Player.java
 
-import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.Point;
-import java.awt.Stroke;
-import java.awt.BasicStroke;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
- * Handles piece generation, movement, rotation with SRS, scoring, and drawing.
+ * Handles piece generation, movement, rotation with SRS, and scoring.
  */
 public class Player {
     private final int playerId;
     private final Direction dropDirection;
     private final Point spawnPoint;
     private final Board board;
-    private final Tetris game;
+    private final GameEngine game;
     private Tetramino holdPiece = null;
     private boolean holdUsed = false;
     private boolean holdErrorPlayed = false;
     private Tetramino currentPiece;
-    private final List<Integer> nextPieces = new ArrayList<>();
+    private final Tetramino ghost = new Tetramino(); // reused by getGhostTiles
+    private PieceQueue nextPieces;
     private long score = 0;
     private boolean lost = false;
-    private final List<Color> tetraminoColors;
-
-    List<Color> base = Arrays.asList(
-            Color.decode("#FF0000"), // red
-            Color.decode("#FF7F00"), // orange
-            Color.decode("#FFFF00"), // yellow
-            Color.decode("#00FF00"), // green
-            Color.decode("#00FFFF"), // cyan
-            Color.decode("#0000FF"), // blue
-            Color.decode("#8B00FF") // purple
-    );
 
     // SRS Wall-Kick Tables
     // I-Piece kicks: from orientation N to N+1 (cw)
@@ -57,71 +40,49 @@ public class Player {
             { { 0, 0 }, { -1, 0 }, { -1, -1 }, { 0, 2 }, { -1, 2 } }
     };
 
-    public Player(int playerId, Direction dropDirection, Point spawnPoint, Board board, Tetris game) {
+    // O-piece: no kicks
+    private static final int[][] O_KICKS = { { 0, 0 } };
+
+    public Player(int playerId, Direction dropDirection, Point spawnPoint, Board board, GameEngine game,
+            PieceQueue queue) {
         this.playerId = playerId;
+        this.nextPieces = queue;
         this.dropDirection = dropDirection;
         this.spawnPoint = new Point(spawnPoint);
         this.board = board;
         this.game = game;
-
-        // Choose color palette
-        if (playerId == 1) {
-            this.tetraminoColors = base;
-        } else {
-            // for Player 2, shift each hue just a bit
-            this.tetraminoColors = base.stream()
-                    .map(c -> shiftHSB(c, 1f, -0.3f, 0.1f))
-                    .collect(Collectors.toList());
-        }
         newPiece();
     }
 
-    private static Color shiftHSB(Color in, float hueShift, float satShift, float briShift) {
-        float[] hsb = Color.RGBtoHSB(in.getRed(), in.getGreen(), in.getBlue(), null);
-        float h = (hsb[0] + hueShift) % 1f;
-        if (h < 0)
-            h += 1f;
-        float s = Math.min(1f, Math.max(0f, hsb[1] + satShift));
-        float b = Math.min(1f, Math.max(0f, hsb[2] + briShift));
-        return Color.getHSBColor(h, s, b);
-    }
-
     // Piece Management
-    /** Spawn a new random piece. */
+    /** Spawn the next piece from the 7-bag queue. */
     public void newPiece() {
-        // if we’re about to run out, add two full shuffled bags
-        if (nextPieces.size() < 7) {
-            List<Integer> bag = Arrays.asList(0, 1, 2, 3, 4, 5, 6);
-            Collections.shuffle(bag);
-            nextPieces.addAll(bag);
-            Collections.shuffle(bag);
-            nextPieces.addAll(bag);
-        }
         this.holdUsed = false;
         this.holdErrorPlayed = false;
-        // then pop one off to spawn
-        int shape = nextPieces.remove(0);
-        currentPiece = new Tetramino();
-        currentPiece.generateNewPiece(shape, new Point(spawnPoint));
+        // pop one off to spawn, reusing our piece object
+        int shape = nextPieces.next();
+        if (currentPiece == null)
+            currentPiece = new Tetramino();
+        currentPiece.generateNewPiece(shape, spawnPoint.x, spawnPoint.y);
+        currentPiece.setMergeCount(0);
+    }
+
+    /** Vertical step for this player's drop direction. */
+    private int dropStep() {
+        return dropDirection == Direction.DOWN ? 1 : -1;
     }
 
     /** Soft drop: move piece one step; fix & spawn new if collision. */
     public void drop() {
-        Tetramino test = currentPiece.copy();
-        test.dropPiece(dropDirection);
-        if (board.isCollision(test.getTiles(), playerId)) {
-            game.stopAllMergeLoops();
+        if (board.isCollision(currentPiece, 0, dropStep(), playerId)) {
             board.fixPiece(
                     currentPiece.getTiles(),
                     playerId,
                     currentPiece.getShapeID(),
                     currentPiece.getMergeCount());
-            game.playSound("sfx/fix_click.wav", false);
             int cleared = board.clearLines(playerId);
-            if (cleared > 0) {
-                game.playSound("sfx/line_clear.wav", false);
-                score += computeScore(cleared);
-            }
+            score += computeScore(cleared);
+            game.events().onLock(playerId, cleared, false, currentPiece.getTiles());
             checkLose(currentPiece.getTiles());
             newPiece();
 
@@ -130,33 +91,28 @@ public class Player {
         }
     }
 
-    /** Move left/right; undo on collision. */
-    public void move(int dx) {
+    /** Move left/right; returns false (and stays put) on collision. */
+    public boolean move(int dx) {
+        if (board.isCollision(currentPiece, dx, 0, playerId))
+            return false;
         currentPiece.movePiece(dx);
-        if (board.isCollision(currentPiece.getTiles(), playerId)) {
-            currentPiece.movePiece(-dx);
-        } else {
-            game.playSound("sfx/move_click.wav", false);
-        }
+        game.events().onMove(playerId);
+        return true;
     }
 
     /** Hard drop: instantly land piece at ghost position. */
     public void hardDrop() {
-        List<Point> landing = getGhostTiles();
+        currentPiece.shift(0, dropStep() * landingDistance());
+        List<Point> landing = currentPiece.getTiles();
         board.fixPiece(
                 landing,
                 playerId,
                 currentPiece.getShapeID(),
                 currentPiece.getMergeCount());
-        game.playSound("sfx/fix_click.wav", false);
         int cleared = board.clearLines(playerId);
-        if (cleared > 0) {
-            game.playSound("sfx/line_clear.wav", false);
-            score += computeScore(cleared);
-        }
+        score += computeScore(cleared);
         checkLose(landing);
-        game.stopAllMergeLoops();
-        game.onSlam(landing);
+        game.events().onLock(playerId, cleared, true, landing);
         newPiece();
         this.holdUsed = false;
 
@@ -166,55 +122,52 @@ public class Player {
     /** Rotate CW (+1) or CCW (-1) using SRS wall kicks. */
     public void rotate(int delta) {
         int oldO = currentPiece.getOrientation();
-        Tetramino test = currentPiece.copy();
-        test.rotatePiece(delta);
+        // rotate in place, then test each kick as an offset
+        currentPiece.rotatePiece(delta);
 
         int shape = currentPiece.getShapeID();
         int[][] kicks;
         if (shape == 0)
             kicks = I_KICKS[oldO];
         else if (shape == 1)
-            kicks = new int[][] { { 0, 0 } }; // O‑piece
+            kicks = O_KICKS;
         else
             kicks = JLSTZ_KICKS[oldO];
 
         for (int[] k : kicks) {
             // apply both x and y kick:
-            test.shift(k[0], k[1]);
-            if (!board.isCollision(test.getTiles(), playerId)) {
-                currentPiece = test;
-                game.playSound("sfx/rotate.wav", false);
+            if (!board.isCollision(currentPiece, k[0], k[1], playerId)) {
+                currentPiece.shift(k[0], k[1]);
+                game.events().onRotate(playerId);
                 return;
             }
-            // revert
-            test.shift(-k[0], -k[1]);
         }
-        // all kicks failed -> do nothing
+        // all kicks failed -> put it back
+        currentPiece.undoRotate(delta);
     }
 
     public void hold() {
         if (currentPiece.getMergeCount() > 0 || holdUsed) {
             if (!holdErrorPlayed) {
-                game.playSound("sfx/error.wav", false);
+                game.events().onHoldRefused(playerId);
                 holdErrorPlayed = true;
             }
             return;
         }
 
         holdErrorPlayed = false;
-        Tetramino oldHold = holdPiece;
-        // store the current into hold
-        holdPiece = currentPiece.copy();
-        holdPiece.generateNewPiece(currentPiece.getShapeID(), new Point(spawnPoint));
-        holdPiece.setMergeCount(currentPiece.getMergeCount());
-
-        if (oldHold == null) {
-            // first time hold: pull the next piece
+        int shape = currentPiece.getShapeID();
+
+        if (holdPiece == null) {
+            // first time hold: store the current, pull the next piece
+            holdPiece = new Tetramino();
+            holdPiece.generateNewPiece(shape, spawnPoint.x, spawnPoint.y);
             newPiece();
         } else {
-            // swap oldHold back into play
-            currentPiece = oldHold.copy();
-            currentPiece.generateNewPiece(currentPiece.getShapeID(), new Point(spawnPoint));
+            // swap the held shape back into play
+            int held = holdPiece.getShapeID();
+            holdPiece.generateNewPiece(shape, spawnPoint.x, spawnPoint.y);
+            currentPiece.generateNewPiece(held, spawnPoint.x, spawnPoint.y);
         }
         holdUsed = true;
     }
@@ -224,9 +177,12 @@ public class Player {
         return holdPiece;
     }
 
-    /** Peek at the next n shapes without consuming them. */
-    public List<Integer> peekNext(int n) {
-        return nextPieces.subList(0, Math.min(n, nextPieces.size()));
+    /**
+     * Copy the next out.length shapes into out without consuming them;
+     * returns how many were written.
+     */
+    public int peekNext(int[] out) {
+        return nextPieces.peek(out);
     }
 
     public void addScore(int delta) {
@@ -234,56 +190,21 @@ public class Player {
     }
 
     // Ghost / Scoring / Lose
+    /**
+     * Landing position of the current piece. The list is owned by this
+     * player and is rewritten by the next call.
+     */
     public List<Point> getGhostTiles() {
-        Tetramino ghost = currentPiece.copy();
-        while (true) {
-            Tetramino next = ghost.copy();
-            next.dropPiece(dropDirection);
-            if (board.isCollision(next.getTiles(), playerId))
-                break;
-            ghost = next;
-        }
+        ghost.copyFrom(currentPiece);
+        ghost.shift(0, dropStep() * landingDistance());
         return ghost.getTiles();
     }
 
-public Color getCurrentColor() {
-        int m = currentPiece.getMergeCount();
-        if (m == 1)   return new Color(0xAA,0x00,0xAA);
-        if (m == 2)   return Color.YELLOW;
-        if (m == 3)   return Color.RED;
-        if (m >= Tetris.MAX_MERGES) {
-            boolean on = ((System.currentTimeMillis()/100)%2)==0;
-            return on ? Color.RED : Color.WHITE;
-        }
-        return tetraminoColors.get(currentPiece.getShapeID());
-    }
-
-    /** draw only the ghost outline in *this* color */
-    public void drawGhost(Graphics2D g, Color c) {
-        Stroke old = g.getStroke();
-        g.setColor(new Color(c.getRed(), c.getGreen(), c.getBlue(), 120));
-        g.setStroke(new BasicStroke(2));
-        for (Point p : getGhostTiles()) {
-            g.drawRect(p.x*board.getTileSize(),
-                       p.y*board.getTileSize(),
-                       board.getTileSize()-1,
-                       board.getTileSize()-1);
-        }
-        g.setStroke(old);
-    }
-
-    /** draw only the filled blocks in *this* color */
-    public void drawPiece(Graphics2D g, Color c) {
-        for (Point p : currentPiece.getTiles()) {
-            g.setColor(c);
-            g.fillRect(p.x*board.getTileSize(),
-                       p.y*board.getTileSize(),
-                       board.getTileSize()-1,
-                       board.getTileSize()-1);
-        }
+    /** Rows the current piece can still fall; from the board's skyline. */
+    private int landingDistance() {
+        return board.dropDistance(currentPiece.getTiles(), playerId, dropDirection);
     }
 
-
     public List<Point> getCurrentTiles() {
         return currentPiece.getTiles();
     }
@@ -301,18 +222,7 @@ public Color getCurrentColor() {
     }
 
     private int computeScore(int lines) {
-        switch (lines) {
-            case 1:
-                return 100;
-            case 2:
-                return 300;
-            case 3:
-                return 500;
-            case 4:
-                return 800;
-            default:
-                return 0;
-        }
+        return game.getRules().lineScore(lines);
     }
 
     private void checkLose(List<Point> tiles) {
@@ -325,13 +235,59 @@ public Color getCurrentColor() {
         }
     }
 
-    public void reset() {
+    /** Start over with a fresh piece sequence. */
+    public void reset(PieceQueue queue) {
         score = 0;
         lost = false;
-        nextPieces.clear();
+        holdPiece = null;
+        nextPieces = queue;
         newPiece();
     }
 
+    // ─── Saved state ──────────────────────────────────────────
+
+    /** Bytes {@link #save} writes. */
+    public int stateSize() {
+        return currentPiece.stateSize() + 10 + nextPieces.stateSize();
+    }
+
+    /** Write piece, hold, flags, score and the piece queue. */
+    public void save(ByteBuffer out) {
+        currentPiece.save(out);
+        out.put((byte) (holdPiece != null ? holdPiece.getShapeID() : -1));
+        out.put((byte) ((holdUsed ? 1 : 0) | (holdErrorPlayed ? 2 : 0) | (lost ? 4 : 0)));
+        out.putLong(score);
+        nextPieces.save(out);
+    }
+
+    /** Restore a state written by {@link #save}. */
+    public void load(ByteBuffer in) {
+        currentPiece.load(in);
+        int held = in.get();
+        if (held < 0) {
+            holdPiece = null;
+        } else {
+            if (holdPiece == null)
+                holdPiece = new Tetramino();
+            holdPiece.generateNewPiece(held, spawnPoint.x, spawnPoint.y);
+        }
+        int flags = in.get();
+        holdUsed = (flags & 1) != 0;
+        holdErrorPlayed = (flags & 2) != 0;
+        lost = (flags & 4) != 0;
+        score = in.getLong();
+        nextPieces.load(in);
+    }
+
+    /** Fold this player's whole state into a running state hash. */
+    public long hash(long h) {
+        h = currentPiece.hash(h);
+        h = GameEngine.mix(h, holdPiece != null ? holdPiece.getShapeID() : -1);
+        h = GameEngine.mix(h, (holdUsed ? 1 : 0) | (holdErrorPlayed ? 2 : 0) | (lost ? 4 : 0));
+        h = GameEngine.mix(h, score);
+        return nextPieces.hash(h);
+    }
+
     public long getScore() {
         return score;
     }
@@ -340,10 +296,6 @@ public Color getCurrentColor() {
         return playerId;
     }
 
-    public List<Color> getTetraminoColors() {
-        return tetraminoColors;
-    }
-
     public boolean hasLost() {
         return lost;
     }
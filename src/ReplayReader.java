@@ -0,0 +1,439 @@
+package src;
+// ReplayReader.java
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Plays back a file written by {@link ReplayWriter}: builds an engine with
+ * the recorded configuration and feeds it the recorded commands on the
+ * recorded ticks, checking the running state hash along the way.
+ *
+ * <pre>
+ *   ReplayReader r = ReplayReader.open(path);
+ *   GameEngine e = r.newEngine();
+ *   while (r.step(e)) { ... draw e ... }
+ *   r.seek(e, tick);    // jump anywhere, forwards or back
+ * </pre>
+ *
+ * Files are memory-mapped, and {@link #seek} binary-searches the keyframe
+ * index in place, loads the nearest keyframe at or before the target and
+ * simulates only the remaining ticks, so a seek costs at most one keyframe
+ * interval of simulation however long the match was.
+ *
+ * Run as a program to verify replays from the command line.
+ */
+public class ReplayReader {
+    private final ByteBuffer buf;
+
+    // header
+    private final int version;
+    private final int cols, rows;
+    private final boolean wacky;
+    private final long seed;
+    private final int gravity;
+    private final int[] handling = new int[6];    // das, arr, sd for p1 then p2
+    private final int hashInterval;
+    private final int keyframeInterval;
+    private final long startHash;
+    private final int recordsStart;
+
+    // keyframe index: in the file's footer, or built by one scan if the
+    // file was cut off before it was written
+    private int recordsEnd;
+    private int indexAt = -1;           // offset of the first footer entry
+    private long[] scanned;             // tick, offset pairs from a scan
+    private int keyframes;
+    private long lastTick = -1;
+
+    // the record we have read but not yet acted on
+    private long recTick;
+    private int recKind = -1;           // -1 = end of input
+    private long recValue;
+    private int recWinner;
+    private int recBody, recLength;     // keyframe payload
+
+    private long chain;
+    private long divergedTick = -1;
+    private boolean ended;              // saw an end record
+    private int commands;
+
+    public ReplayReader(ByteBuffer data) throws IOException {
+        buf = data.duplicate();
+        try {
+            if (buf.getInt() != ReplayWriter.MAGIC)
+                throw new IOException("not a BattleTetris replay");
+            version = buf.get();
+            if (version < 1 || version > ReplayWriter.VERSION)
+                throw new IOException("unsupported replay version " + version);
+            cols = (int) readVar();
+            rows = (int) readVar();
+            wacky = buf.get() != 0;
+            seed = buf.getLong();
+            gravity = (int) readVar();
+            for (int i = 0; i < handling.length; i++)
+                handling[i] = (int) readVar();
+            hashInterval = (int) readVar();
+            keyframeInterval = version >= 2 ? (int) readVar() : 0;
+            startHash = buf.getLong();
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("replay header cut off");
+        }
+        recordsStart = buf.position();
+        recordsEnd = buf.limit();
+        readFooter();
+        readRecord();
+    }
+
+    /** Map a replay file; the mapping outlives the channel. */
+    public static ReplayReader open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new ReplayReader(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    /**
+     * A fresh engine set up exactly as the recorded one was. A start state
+     * that already differs (say, from a changed piece generator) counts as
+     * a divergence at tick 0.
+     */
+    public GameEngine newEngine() {
+        GameEngine e = new GameEngine(cols, rows, wacky, seed);
+        e.setGravity(gravity);
+        for (int id = 1; id <= 2; id++) {
+            int i = (id - 1) * 3;
+            e.getInput(id).setHandling(handling[i], handling[i + 1], handling[i + 2]);
+        }
+        chain = e.stateHash();
+        if (chain != startHash)
+            divergedTick = 0;
+        return e;
+    }
+
+    /**
+     * Apply the commands recorded for e's current tick, then run one tick.
+     * Returns false once the replay is over: the end record or end of file
+     * was reached, or the state diverged (see {@link #getDivergedTick()}).
+     */
+    public boolean step(GameEngine e) throws IOException {
+        if (divergedTick >= 0)
+            return false;
+        long t = e.getTickCount();
+        while (recKind == ReplayWriter.REC_COMMAND && recTick == t) {
+            e.apply(recValue);
+            commands++;
+            readRecord();
+        }
+        if (recKind == ReplayWriter.REC_END && recTick == t) {
+            ended = true;
+            if (recValue != chain || recWinner != e.getWinner())
+                divergedTick = t;
+            recKind = -1;
+            return false;
+        }
+        if (recKind < 0)
+            return false;           // truncated: the game was killed mid-match
+        if (recTick < t)
+            throw new IOException("replay records out of order at tick " + t);
+
+        e.tick();
+        t = e.getTickCount();
+        chain = GameEngine.mix(chain, e.stateHash());
+        while ((recKind == ReplayWriter.REC_HASH || recKind == ReplayWriter.REC_KEYFRAME) && recTick == t) {
+            // a keyframe carries the full running hash; a hash record the low half
+            boolean match = recKind == ReplayWriter.REC_HASH
+                    ? (int) recValue == (int) chain
+                    : buf.getLong(recBody + 8) == chain;
+            if (!match) {
+                divergedTick = t;
+                return false;
+            }
+            readRecord();
+        }
+        return true;
+    }
+
+    /**
+     * Put e (from {@link #newEngine()}) at the given tick: from the closest
+     * keyframe at or before it, or straight on if e is already between that
+     * keyframe and the target. Returns false if the replay ends first.
+     */
+    public boolean seek(GameEngine e, long tick) throws IOException {
+        int k = floorKeyframe(tick);
+        long from = k >= 0 ? keyframeTick(k) : 0;
+        long now = e.getTickCount();
+        if (now < from || now > tick || divergedTick >= 0) {
+            if (k >= 0)
+                loadKeyframe(e, keyframeOffset(k));
+            else
+                rewind(e);
+        }
+        while (e.getTickCount() < tick) {
+            if (!step(e))
+                return false;
+        }
+        return true;
+    }
+
+    /** Back to the recorded start state. */
+    private void rewind(GameEngine e) throws IOException {
+        e.reset(seed);
+        e.setGravity(gravity);
+        chain = e.stateHash();
+        divergedTick = chain != startHash ? 0 : -1;
+        ended = false;
+        recTick = 0;
+        buf.position(recordsStart);
+        readRecord();
+    }
+
+    private void loadKeyframe(GameEngine e, int offset) throws IOException {
+        buf.position(offset);
+        readRecord();
+        if (recKind != ReplayWriter.REC_KEYFRAME)
+            throw new IOException("keyframe index points at a " + recKind + " record");
+        ByteBuffer state = buf.duplicate();
+        state.position(recBody).limit(recBody + recLength);
+        recTick = state.getLong();
+        chain = state.getLong();
+        e.loadState(state);
+        divergedTick = -1;
+        ended = false;
+        readRecord();
+    }
+
+    // ─── Keyframe index ───────────────────────────────────────
+
+    private void readFooter() {
+        int end = buf.limit();
+        if (version < 2 || end - recordsStart < ReplayWriter.TRAILER_SIZE
+                || buf.getInt(end - 4) != ReplayWriter.INDEX_MAGIC)
+            return;
+        long at = buf.getLong(end - ReplayWriter.TRAILER_SIZE);
+        if (at < recordsStart || at > end - ReplayWriter.TRAILER_SIZE - 4)
+            return;
+        int n = buf.getInt((int) at);
+        if ((long) n * 16 != end - ReplayWriter.TRAILER_SIZE - at - 4)
+            return;
+        recordsEnd = (int) at;
+        indexAt = (int) at + 4;
+        keyframes = n;
+        lastTick = buf.getLong(end - 12);
+    }
+
+    /** No footer: walk the records once, skipping bodies, to find the keyframes. */
+    private void scanIndex() {
+        scanned = new long[32];
+        ByteBuffer b = buf.duplicate();
+        b.position(recordsStart).limit(recordsEnd);
+        long tick = 0;
+        try {
+            while (b.hasRemaining()) {
+                int at = b.position();
+                long head = readVar(b);
+                tick += head >>> 2;
+                switch ((int) (head & 3)) {
+                    case ReplayWriter.REC_COMMAND:
+                        readVar(b);
+                        break;
+                    case ReplayWriter.REC_HASH:
+                        b.getInt();
+                        break;
+                    case ReplayWriter.REC_END:
+                        b.get();
+                        b.getLong();
+                        break;
+                    default:
+                        int n = (int) readVar(b);
+                        if (n > b.remaining())
+                            throw new BufferUnderflowException();
+                        b.position(b.position() + n);
+                        if (keyframes * 2 == scanned.length)
+                            scanned = Arrays.copyOf(scanned, scanned.length * 2);
+                        scanned[keyframes * 2] = tick;
+                        scanned[keyframes * 2 + 1] = at;
+                        keyframes++;
+                        break;
+                }
+                lastTick = tick;
+            }
+        } catch (BufferUnderflowException | IOException ex) {
+            // cut off mid-record: keep what we found
+        }
+    }
+
+    private void ensureIndex() {
+        if (indexAt < 0 && scanned == null)
+            scanIndex();
+    }
+
+    /** Last keyframe at or before tick, or -1. */
+    private int floorKeyframe(long tick) {
+        ensureIndex();
+        int lo = 0, hi = keyframes - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keyframeTick(mid) <= tick) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private long keyframeTick(int i) {
+        return indexAt >= 0 ? buf.getLong(indexAt + i * 16) : scanned[i * 2];
+    }
+
+    private int keyframeOffset(int i) {
+        return (int) (indexAt >= 0 ? buf.getLong(indexAt + i * 16 + 8) : scanned[i * 2 + 1]);
+    }
+
+    // ─── Accessors ────────────────────────────────────────────
+
+    /** First tick whose hash did not match the recording, or -1. */
+    public long getDivergedTick() {
+        return divergedTick;
+    }
+
+    /** True if the recording ended properly (not cut off). */
+    public boolean isComplete() {
+        return ended;
+    }
+
+    /** Ticks in the whole recording. */
+    public long getLength() {
+        ensureIndex();
+        return lastTick;
+    }
+
+    public int getKeyframeCount() {
+        ensureIndex();
+        return keyframes;
+    }
+
+    /** Commands applied so far. */
+    public int getCommandCount() {
+        return commands;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getHashInterval() {
+        return hashInterval;
+    }
+
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    // ─── Decoding ─────────────────────────────────────────────
+
+    private void readRecord() throws IOException {
+        if (buf.position() >= recordsEnd) {
+            recKind = -1;
+            return;
+        }
+        try {
+            long head = readVar();
+            recTick += head >>> 2;
+            recKind = (int) (head & 3);
+            switch (recKind) {
+                case ReplayWriter.REC_COMMAND:
+                    recValue = readVar();
+                    break;
+                case ReplayWriter.REC_HASH:
+                    recValue = buf.getInt();
+                    break;
+                case ReplayWriter.REC_END:
+                    recWinner = buf.get();
+                    recValue = buf.getLong();
+                    break;
+                default:
+                    recLength = (int) readVar();
+                    recBody = buf.position();
+                    if (recLength > recordsEnd - recBody)
+                        throw new BufferUnderflowException();
+                    buf.position(recBody + recLength);
+                    break;
+            }
+        } catch (BufferUnderflowException ex) {
+            recKind = -1;           // cut off mid-record
+        }
+    }
+
+    private long readVar() throws IOException {
+        return readVar(buf);
+    }
+
+    private static long readVar(ByteBuffer b) throws IOException {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            int x = b.get();
+            v |= (long) (x & 0x7F) << shift;
+            if ((x & 0x80) == 0)
+                return v;
+            if (shift > 56)
+                throw new IOException("bad varint in replay");
+        }
+    }
+
+    // ─── Command line ─────────────────────────────────────────
+
+    /**
+     * Verify each replay named on the command line, or with
+     * {@code --seek TICK} time a jump to that tick; exit status 1 on any
+     * failure.
+     */
+    public static void main(String[] args) throws IOException {
+        long seekTo = -1;
+        int first = 0;
+        if (args.length >= 2 && args[0].equals("--seek")) {
+            seekTo = Long.parseLong(args[1]);
+            first = 2;
+        }
+        if (first == args.length) {
+            System.err.println("usage: java src.ReplayReader [--seek TICK] replay.btr...");
+            System.exit(2);
+        }
+        boolean ok = true;
+        for (int i = first; i < args.length; i++) {
+            Path file = Paths.get(args[i]);
+            ReplayReader r = open(file);
+            GameEngine e = r.newEngine();
+            long start = System.nanoTime();
+            if (seekTo >= 0) {
+                boolean reached = r.seek(e, seekTo);
+                double ms = (System.nanoTime() - start) / 1e6;
+                ok &= reached && r.getDivergedTick() < 0;
+                System.out.printf("%s: seek to %d %s in %.2f ms (%d keyframes, %d ticks long)%n",
+                        file, seekTo, reached ? "ok" : "failed at " + e.getTickCount(), ms,
+                        r.getKeyframeCount(), r.getLength());
+                continue;
+            }
+            while (r.step(e)) {
+                // run flat out
+            }
+            double secs = (System.nanoTime() - start) / 1e9;
+            long ticks = e.getTickCount();
+            String status = r.getDivergedTick() >= 0 ? "DIVERGED at tick " + r.getDivergedTick()
+                    : r.isComplete() ? "ok" : "ok (truncated)";
+            ok &= r.getDivergedTick() < 0;
+            System.out.printf("%s: %s, %d ticks (%.1f s of play), %d inputs, %d keyframes, %d bytes, winner %d, %.0f ticks/s%n",
+                    file, status, ticks, ticks / (double) GameEngine.TICK_RATE, r.getCommandCount(),
+                    r.getKeyframeCount(), Files.size(file), e.getWinner(), ticks / Math.max(secs, 1e-9));
+        }
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,246 @@
+package src;
+// ReplayWriter.java
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Records a match as its starting configuration plus the commands applied
+ * to the engine, which is all {@link ReplayReader} needs to re-simulate it
+ * tick for tick. Attach with {@link GameEngine#setRecorder}. Every
+ * keyframeInterval ticks a full engine state is stored as well, and an
+ * index of those keyframes closes the file, so a reader can jump to any
+ * tick by loading the keyframe before it and simulating the rest.
+ *
+ * File layout (integers are unsigned LEB128 varints unless noted):
+ * <pre>
+ *   header:  magic "BTRP" (4 bytes), version (1 byte), cols, rows,
+ *            wacky (1 byte), seed (8 bytes), gravity,
+ *            das/arr/softDrop for player 1 then player 2, hashInterval,
+ *            keyframeInterval, initial state hash (8 bytes)
+ *   record:  (ticksSincePreviousRecord &lt;&lt; 2 | kind), then by kind
+ *            0 command:  the command's low 32 bits
+ *            1 hash:     low 32 bits of the running hash (4 bytes)
+ *            2 end:      winner (1 byte), full running hash (8 bytes)
+ *            3 keyframe: length, then tick and running hash (8 bytes
+ *                        each) and {@link GameEngine#saveState} output
+ *   index:   count (4 bytes), then per keyframe its tick and the file
+ *            offset of its record (8 bytes each)
+ *   trailer: index offset, last tick (8 bytes each), magic "BTRX" (4 bytes)
+ * </pre>
+ * The running hash folds in {@link GameEngine#stateHash()} after every
+ * tick, so a divergence anywhere between two hash records still shows up
+ * in the next one. A typical input costs three to five bytes; a keyframe
+ * is about twice the board's cell count. A file cut off before the index
+ * is still readable, just slower to seek the first time.
+ *
+ * Write errors do not stop the game: recording just ends and the first
+ * error is kept for {@link #getError()}.
+ */
+public class ReplayWriter implements Closeable {
+    static final int MAGIC = 0x42545250;    // "BTRP"
+    static final int INDEX_MAGIC = 0x42545258;  // "BTRX"
+    static final int VERSION = 2;
+    static final int REC_COMMAND = 0, REC_HASH = 1, REC_END = 2, REC_KEYFRAME = 3;
+    static final int TRAILER_SIZE = 20;
+
+    private final OutputStream out;
+    private final int hashInterval;
+    private final int keyframeInterval;
+    private final byte[] buf = new byte[32];    // one record at a time
+    private int len;
+    private long written;                       // bytes handed to out so far
+
+    private ByteBuffer frame;                   // keyframe staging, grown as needed
+    private long[] index = new long[32];        // keyframe tick, offset pairs
+    private int keyframes;
+
+    private GameEngine engine;
+    private long lastTick;
+    private long chain;
+    private IOException error;
+    private boolean closed;
+
+    /**
+     * hashInterval: ticks between hash records (1 = every tick);
+     * keyframeInterval: ticks between keyframes, which bounds how much a
+     * seek has to simulate.
+     */
+    public ReplayWriter(OutputStream out, int hashInterval, int keyframeInterval) {
+        if (hashInterval < 1 || keyframeInterval < 1)
+            throw new IllegalArgumentException("hash and keyframe intervals must be at least 1");
+        this.out = out;
+        this.hashInterval = hashInterval;
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /** Record into a new file: a hash every second, a keyframe every ten. */
+    public static ReplayWriter open(Path file) throws IOException {
+        return new ReplayWriter(new BufferedOutputStream(Files.newOutputStream(file), 8192),
+                GameEngine.TICK_RATE, 10 * GameEngine.TICK_RATE);
+    }
+
+    // ─── Engine side ──────────────────────────────────────────
+
+    /** Write the header for engine's current (start) state. */
+    void begin(GameEngine e) {
+        if (engine != null)
+            throw new IllegalStateException("a replay records one match");
+        engine = e;
+        lastTick = e.getTickCount();
+        chain = e.stateHash();
+        len = 0;
+        putInt(MAGIC);
+        buf[len++] = (byte) VERSION;
+        putVar(e.getNumCols());
+        putVar(e.getNumRows());
+        buf[len++] = (byte) (e.isWackyMode() ? 1 : 0);
+        putLong(e.getSeed());
+        putVar(e.getGravity());
+        flushRecord();
+        for (int id = 1; id <= 2; id++) {
+            InputSampler in = e.getInput(id);
+            putVar(in.getDas());
+            putVar(in.getArr());
+            putVar(in.getSoftDrop());
+        }
+        putVar(hashInterval);
+        putVar(keyframeInterval);
+        putLong(chain);
+        flushRecord();
+    }
+
+    void command(long tick, long command) {
+        if (closed)
+            return;
+        putHeader(tick, REC_COMMAND);
+        putVar(command & 0xFFFFFFFFL);
+        flushRecord();
+    }
+
+    void tick(GameEngine e) {
+        if (closed)
+            return;
+        long tick = e.getTickCount();
+        chain = GameEngine.mix(chain, e.stateHash());
+        if (tick % hashInterval == 0) {
+            putHeader(tick, REC_HASH);
+            putInt((int) chain);
+            flushRecord();
+        }
+        if (tick % keyframeInterval == 0)
+            keyframe(e, tick);
+    }
+
+    private void keyframe(GameEngine e, long tick) {
+        int size = 16 + e.stateSize();
+        if (frame == null || frame.capacity() < size)
+            frame = ByteBuffer.allocate(size * 2);
+        frame.clear();
+        frame.putLong(tick);
+        frame.putLong(chain);
+        e.saveState(frame);
+
+        if (keyframes * 2 == index.length)
+            index = Arrays.copyOf(index, index.length * 2);
+        index[keyframes * 2] = tick;
+        index[keyframes * 2 + 1] = written;
+        keyframes++;
+
+        putHeader(tick, REC_KEYFRAME);
+        putVar(frame.position());
+        flushRecord();
+        write(frame.array(), frame.position());
+    }
+
+    /** End the recording (with an end record if a match was recorded). */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        if (engine != null) {
+            putHeader(engine.getTickCount(), REC_END);
+            buf[len++] = (byte) engine.getWinner();
+            putLong(chain);
+            flushRecord();
+            writeIndex();
+        }
+        closed = true;
+        try {
+            out.close();
+        } catch (IOException ex) {
+            if (error == null)
+                error = ex;
+        }
+        if (error != null)
+            throw error;
+    }
+
+    /** First write error, or null. */
+    public IOException getError() {
+        return error;
+    }
+
+    private void writeIndex() {
+        long at = written;
+        putInt(keyframes);
+        flushRecord();
+        for (int i = 0; i < keyframes; i++) {
+            putLong(index[i * 2]);
+            putLong(index[i * 2 + 1]);
+            flushRecord();
+        }
+        putLong(at);
+        putLong(lastTick);
+        putInt(INDEX_MAGIC);
+        flushRecord();
+    }
+
+    // ─── Encoding ─────────────────────────────────────────────
+
+    private void putHeader(long tick, int kind) {
+        len = 0;
+        putVar((tick - lastTick) << 2 | kind);
+        lastTick = tick;
+    }
+
+    private void putVar(long v) {
+        while ((v & ~0x7FL) != 0) {
+            buf[len++] = (byte) (v | 0x80);
+            v >>>= 7;
+        }
+        buf[len++] = (byte) v;
+    }
+
+    private void putInt(int v) {
+        for (int shift = 24; shift >= 0; shift -= 8)
+            buf[len++] = (byte) (v >>> shift);
+    }
+
+    private void putLong(long v) {
+        putInt((int) (v >>> 32));
+        putInt((int) v);
+    }
+
+    private void flushRecord() {
+        write(buf, len);
+        len = 0;
+    }
+
+    private void write(byte[] b, int n) {
+        if (error != null)
+            return;
+        try {
+            out.write(b, 0, n);
+            written += n;
+        } catch (IOException ex) {
+            error = ex;
+        }
+    }
+}
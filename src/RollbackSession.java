@@ -0,0 +1,479 @@
+package src;
+// RollbackSession.java
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * One side of a two-machine match, kept in step with the other side by
+ * input delay plus rollback. Both machines run the same engine from the
+ * same seed; each tick only the set of held keys crosses the network.
+ *
+ * Local input is scheduled {@code delay} ticks ahead and simulated at once,
+ * so it always feels {@code delay} ticks late whatever the round trip. The
+ * remote player's keys for ticks not heard about yet are predicted (still
+ * held as last reported); when the real keys arrive and differ, the engine
+ * is restored from the {@link GameState} of that tick and the ticks since
+ * are simulated again with the listener muted. The end of the match is
+ * reported only once it is confirmed by both sides' input. If the other side falls
+ * more than {@code maxRollback} ticks behind, this side waits for it, and
+ * every second the two sides compare how far each is ahead and the leader
+ * idles a tick or two so neither keeps rolling back more than it must.
+ *
+ * Every packet carries all local keys the peer has not acknowledged, so a
+ * lost packet is repaired by the next one, plus the state hash of the
+ * newest tick simulated with confirmed input from both sides; a mismatch
+ * is reported by {@link #getDesyncFrame()}.
+ *
+ * Single-threaded: drive it from one thread, normally through
+ * {@link GameLoop#GameLoop(RollbackSession, TickScheduler, Runnable)}.
+ * Do not attach a {@link ReplayWriter} to the engine, since it would also
+ * record the re-simulated ticks.
+ */
+public class RollbackSession implements Closeable {
+    public static final int DEFAULT_DELAY = 1;
+    public static final int DEFAULT_MAX_ROLLBACK = 15;
+
+    private static final int PROTOCOL = 1;
+    private static final int RING = 128, MASK = RING - 1;
+    private static final int WINDOW = 64;           // most unacknowledged local ticks
+    private static final int SYNC_INTERVAL = GameEngine.TICK_RATE;
+    private static final int HEADER = 31;
+
+    private final GameEngine engine;
+    private final Transport transport;
+    private final int localId, remoteId;
+    private final int delay, maxRollback;
+    private final int matchId;
+
+    // per-tick key masks and saved states, indexed by frame & MASK
+    private final byte[] localKeys = new byte[RING];
+    private final byte[] remoteKeys = new byte[RING];
+    private final byte[] usedKeys = new byte[RING];     // remote keys a frame was simulated with
+    private final GameState[] states = new GameState[RING];
+    private final long[] hashes = new long[RING];     // GameState hashes of final frames
+    private final ByteBuffer out = ByteBuffer.allocate(Transport.MAX_PACKET);
+    private final ByteBuffer in = ByteBuffer.allocate(Transport.MAX_PACKET);
+
+    private int frame;                  // next frame to simulate
+    private int localLast;              // newest frame with local keys
+    private int remoteConfirmed;        // remote keys known through this frame
+    private int peerAck;                // peer has our keys through this frame
+    private int peerFrame;              // newest frame the peer reported
+    private int peerAdvantage;          // how far the peer thinks it is ahead
+    private int rollbackTo = Integer.MAX_VALUE;
+    private int finalFrame = -1;        // newest frame whose resulting state is final
+    private int overFrame = -1;         // final frame the match was over after
+    private final long firstTick;       // engine tick count at frame 0
+    private int waitTicks, lastSync;
+    private volatile boolean waiting;   // read by the UI
+    private int held, tapped;           // local keys, fed by input()
+
+    private long rollbacks, rolledBackFrames, stalls, waits, hashChecks;
+    private int deepestRollback;
+    private int desyncFrame = -1;
+    private IOException error;
+
+    /** localId is 1 or 2; the other machine must use the other id. */
+    public RollbackSession(GameEngine engine, int localId, Transport transport) {
+        this(engine, localId, transport, DEFAULT_DELAY, DEFAULT_MAX_ROLLBACK);
+    }
+
+    /**
+     * delay: ticks between a local key and its effect (0 to 8);
+     * maxRollback: furthest this side predicts ahead of the remote keys
+     * it has (1 to 30). Both machines must use the same delay.
+     */
+    public RollbackSession(GameEngine engine, int localId, Transport transport, int delay, int maxRollback) {
+        if (localId != 1 && localId != 2)
+            throw new IllegalArgumentException("player id must be 1 or 2");
+        if (delay < 0 || delay > 8 || maxRollback < 1 || maxRollback > 30)
+            throw new IllegalArgumentException("bad session: delay=" + delay + " maxRollback=" + maxRollback);
+        this.engine = engine;
+        this.transport = transport;
+        this.localId = localId;
+        this.remoteId = 3 - localId;
+        this.delay = delay;
+        this.maxRollback = maxRollback;
+        for (int i = 0; i < RING; i++)
+            states[i] = engine.newState();
+        engine.setGameOverEvents(false);    // see confirm()
+        firstTick = engine.getTickCount();
+        // same seed, board and rules on both sides, or the packets are ignored
+        matchId = (int) GameEngine.mix(engine.stateHash(), PROTOCOL << 8 | delay);
+        // the first delay frames have no input on either side
+        localLast = remoteConfirmed = peerAck = delay - 1;
+    }
+
+    // ─── Local input ──────────────────────────────────────────
+
+    /**
+     * Take a local command; only key edges count, whatever player they
+     * name. A key pressed and released between two ticks still counts as
+     * held for one tick.
+     */
+    public void input(long command) {
+        int key = (short) (command >>> 16);
+        switch ((int) command & 0xFF) {
+            case GameEngine.CMD_KEY_DOWN:
+                if (key >= 0 && key < InputSampler.KEY_COUNT) {
+                    held |= 1 << key;
+                    tapped |= 1 << key;
+                }
+                break;
+            case GameEngine.CMD_KEY_UP:
+                if (key >= 0 && key < InputSampler.KEY_COUNT)
+                    held &= ~(1 << key);
+                break;
+            case GameEngine.CMD_RELEASE_ALL:
+                held = 0;
+                break;
+            default:
+                break;
+        }
+    }
+
+    // ─── Simulation ───────────────────────────────────────────
+
+    /**
+     * One tick: read packets, roll back if a prediction was wrong, then
+     * simulate the next frame unless this side has to wait for the other.
+     * Returns whether a frame was simulated.
+     */
+    public boolean advance() {
+        poll();
+        if (rollbackTo < frame)
+            rollback();
+        waiting = !canAdvance();
+        if (!waiting) {
+            int f = frame + delay;
+            localKeys[f & MASK] = (byte) (held | tapped);
+            tapped = 0;
+            localLast = f;
+            simulate(frame);
+            frame++;
+        }
+        confirm();
+        send();
+        return !waiting;
+    }
+
+    private boolean canAdvance() {
+        if (engine.isOver())
+            return false;           // wait for the ending to be confirmed (or undone)
+        if (frame - remoteConfirmed > maxRollback || localLast + 1 - peerAck > WINDOW) {
+            stalls++;
+            return false;
+        }
+        if (waitTicks == 0 && frame - lastSync >= SYNC_INTERVAL) {
+            lastSync = frame;
+            // both advantages include the one-way latency, so the
+            // difference is twice how far this side is ahead
+            int lead = (frame - peerFrame) - peerAdvantage;
+            if (lead >= 2)
+                waitTicks = Math.min(lead / 2, 8);
+        }
+        if (waitTicks > 0) {
+            waitTicks--;
+            waits++;
+            return false;
+        }
+        return true;
+    }
+
+    private void simulate(int f) {
+        engine.save(states[f & MASK]);
+        int remote = f <= remoteConfirmed ? remoteKeys[f & MASK] : predicted();
+        usedKeys[f & MASK] = (byte) remote;
+        int local = localKeys[f & MASK];
+        applyKeys(1, localId == 1 ? local : remote);
+        applyKeys(2, localId == 2 ? local : remote);
+        engine.tick();
+    }
+
+    /**
+     * Hash the states that can no longer change: those after frames with
+     * confirmed keys from both sides, once any rollback they needed is done.
+     */
+    private void confirm() {
+        // the state after frame f is saved when frame f + 1 is simulated
+        int last = Math.min(remoteConfirmed, frame - 2);
+        for (int f = finalFrame + 1; f <= last; f++) {
+            hashes[f & MASK] = states[(f + 1) & MASK].hash();
+            finalFrame = f;
+        }
+        // ticks after the ending do nothing, so the frame that ended it is
+        // the last one the engine counted; this side may have simulated
+        // past it on predictions before a rollback found it
+        int end = (int) (engine.getTickCount() - firstTick) - 1;
+        if (overFrame < 0 && engine.isOver() && remoteConfirmed >= end) {
+            overFrame = end;
+            // the engine's own report may come from a predicted tick, or be
+            // used up by a muted re-simulation; this ending is final
+            engine.events().onGameOver(engine.getWinner());
+        }
+    }
+
+    /** The remote player keeps holding what they held last. */
+    private int predicted() {
+        return remoteConfirmed >= 0 ? remoteKeys[remoteConfirmed & MASK] : 0;
+    }
+
+    /** Turn a key mask into edges against what the player holds now. */
+    private void applyKeys(int playerId, int keys) {
+        int held = engine.getInput(playerId).heldKeys();
+        int up = held & ~keys, down = keys & ~held;
+        for (int k = 0; up != 0; k++, up >>>= 1)
+            if ((up & 1) != 0)
+                engine.apply(GameEngine.command(GameEngine.CMD_KEY_UP, playerId, k));
+        for (int k = 0; down != 0; k++, down >>>= 1)
+            if ((down & 1) != 0)
+                engine.apply(GameEngine.command(GameEngine.CMD_KEY_DOWN, playerId, k));
+    }
+
+    private void rollback() {
+        int from = rollbackTo;
+        rollbackTo = Integer.MAX_VALUE;
+        int depth = frame - from;
+        rollbacks++;
+        rolledBackFrames += depth;
+        deepestRollback = Math.max(deepestRollback, depth);
+
+        // sounds and effects already played for these ticks
+        GameListener listener = engine.events();
+        engine.setListener(null);
+        engine.restore(states[from & MASK]);
+        for (int f = from; f < frame; f++)
+            simulate(f);
+        engine.setListener(listener);
+    }
+
+    // ─── Packets ──────────────────────────────────────────────
+
+    // matchId (4), sender id (1), frame (4), ack (4), advantage (1),
+    // hash frame (4), hash (8), first frame (4), count (1), count key masks
+
+    private void send() {
+        int first = Math.max(peerAck + 1, localLast - WINDOW + 1);
+        int count = localLast - first + 1;
+        out.clear();
+        out.putInt(matchId);
+        out.put((byte) localId);
+        out.putInt(frame);
+        out.putInt(remoteConfirmed);
+        out.put((byte) Math.max(-128, Math.min(127, frame - peerFrame)));
+        out.putInt(finalFrame);
+        out.putLong(finalFrame >= 0 ? hashes[finalFrame & MASK] : 0);
+        out.putInt(first);
+        out.put((byte) count);
+        for (int f = first; f <= localLast; f++)
+            out.put(localKeys[f & MASK]);
+        out.flip();
+        try {
+            transport.send(out);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    private void poll() {
+        try {
+            while (true) {
+                in.clear();
+                if (!transport.receive(in))
+                    break;
+                in.flip();
+                read(in);
+            }
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    private void read(ByteBuffer p) {
+        if (p.remaining() < HEADER || p.getInt() != matchId || p.get() != remoteId)
+            return;
+        int theirFrame = p.getInt();
+        int ack = p.getInt();
+        int advantage = p.get();
+        int hashFrame = p.getInt();
+        long hash = p.getLong();
+        int first = p.getInt();
+        int count = p.get() & 0xFF;
+        if (p.remaining() < count)
+            return;
+        if (theirFrame > peerFrame) {
+            peerFrame = theirFrame;
+            peerAdvantage = advantage;
+        }
+        peerAck = Math.max(peerAck, Math.min(ack, localLast));
+        for (int i = 0; i < count; i++) {
+            int f = first + i;
+            byte keys = p.get();
+            if (f != remoteConfirmed + 1)
+                continue;           // already known
+            remoteKeys[f & MASK] = keys;
+            remoteConfirmed = f;
+            if (f < frame && usedKeys[f & MASK] != keys)
+                rollbackTo = Math.min(rollbackTo, f);
+        }
+        // hashes stay valid for RING frames below the newest final one
+        if (hashFrame >= 0 && hashFrame <= finalFrame && finalFrame - hashFrame < RING) {
+            hashChecks++;
+            if (hashes[hashFrame & MASK] != hash && desyncFrame < 0)
+                desyncFrame = hashFrame;
+        }
+    }
+
+    private void fail(IOException ex) {
+        if (error == null)
+            error = ex;
+    }
+
+    /** Close the transport. */
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+
+    // ─── State ────────────────────────────────────────────────
+
+    /**
+     * True once the match has ended on a tick both sides agree on and the
+     * peer has every key it needs to see the same ending.
+     */
+    public boolean isOver() {
+        return overFrame >= 0 && peerAck >= overFrame;
+    }
+
+    /** True if the last {@link #advance()} had to wait for the other side. */
+    public boolean isWaiting() {
+        return waiting;
+    }
+
+    public GameEngine getEngine() {
+        return engine;
+    }
+
+    public int getLocalId() {
+        return localId;
+    }
+
+    public int getDelay() {
+        return delay;
+    }
+
+    /** Frames simulated so far. */
+    public int getFrame() {
+        return frame;
+    }
+
+    /** Newest frame simulated with both sides' real keys, or -1. */
+    public int getFinalFrame() {
+        return finalFrame;
+    }
+
+    /** {@link GameState#hash()} after {@link #getFinalFrame()}. */
+    public long getFinalHash() {
+        return finalFrame >= 0 ? hashes[finalFrame & MASK] : 0;
+    }
+
+    /** First frame whose hash differed from the peer's, or -1. */
+    public int getDesyncFrame() {
+        return desyncFrame;
+    }
+
+    public long getHashChecks() {
+        return hashChecks;
+    }
+
+    public long getRollbacks() {
+        return rollbacks;
+    }
+
+    public long getRolledBackFrames() {
+        return rolledBackFrames;
+    }
+
+    public int getDeepestRollback() {
+        return deepestRollback;
+    }
+
+    /** Ticks spent waiting because the other side was too far behind. */
+    public long getStalls() {
+        return stalls;
+    }
+
+    /** Ticks idled to let the other side catch up. */
+    public long getWaits() {
+        return waits;
+    }
+
+    /** First transport error, or null; the session keeps going regardless. */
+    public IOException getError() {
+        return error;
+    }
+
+    // ─── Loopback test ────────────────────────────────────────
+
+    /**
+     * Play two sessions against each other through a {@link LoopbackTransport}
+     * with random key presses and report how they coped:
+     * {@code java src.RollbackSession [rttMillis jitterMillis lossPercent seconds]}.
+     */
+    public static void main(String[] args) throws Exception {
+        int rtt = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int jitter = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        double loss = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.05;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        long seed = System.nanoTime();
+        LoopbackTransport[] link = LoopbackTransport.pair(rtt / 2, jitter, loss, seed);
+        RollbackSession[] sessions = new RollbackSession[2];
+        GameLoop[] loops = new GameLoop[2];
+        for (int i = 0; i < 2; i++) {
+            GameEngine e = new GameEngine(10, 40, true, seed);
+            sessions[i] = new RollbackSession(e, i + 1, link[i]);
+            loops[i] = new GameLoop(sessions[i], new TickScheduler(GameEngine.TICK_RATE, 5), null);
+        }
+        for (GameLoop l : loops)
+            l.start();
+
+        // each "player" taps and holds keys at human-ish rates
+        Random r = new Random(seed);
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end && loops[0].isRunning() && loops[1].isRunning()) {
+            for (int i = 0; i < 2; i++) {
+                if (r.nextInt(4) != 0)
+                    continue;
+                int key = r.nextInt(InputSampler.KEY_COUNT);
+                if (key == InputSampler.HARD_DROP && r.nextInt(8) != 0)
+                    key = InputSampler.SOFT_DROP;
+                int type = r.nextBoolean() ? GameEngine.CMD_KEY_DOWN : GameEngine.CMD_KEY_UP;
+                loops[i].submit(GameEngine.command(type, i + 1, key));
+            }
+            Thread.sleep(16);
+        }
+        for (GameLoop l : loops)
+            l.stop();
+
+        System.out.printf("link: %d ms round trip, %d ms jitter, %.0f%% loss, %d s%n",
+                rtt, jitter, loss * 100, seconds);
+        for (RollbackSession s : sessions)
+            System.out.printf("player %d: %d frames, input delay %d, %d rollbacks (%.1f frames avg, %d max),"
+                    + " %d stalled, %d idled, %d hash checks, desync %s%n",
+                    s.localId, s.frame, s.delay, s.rollbacks,
+                    s.rollbacks > 0 ? (double) s.rolledBackFrames / s.rollbacks : 0.0,
+                    s.deepestRollback, s.stalls, s.waits, s.hashChecks,
+                    s.desyncFrame < 0 ? "none" : "at frame " + s.desyncFrame);
+        RollbackSession a = sessions[0], b = sessions[1];
+        int common = Math.min(a.finalFrame, b.finalFrame);
+        boolean same = Math.max(a.finalFrame, b.finalFrame) - common < RING
+                && a.hashes[common & MASK] == b.hashes[common & MASK];
+        System.out.printf("frame %d: states %s%n", common, same ? "match" : "DIFFER");
+        if (!same || a.desyncFrame >= 0 || b.desyncFrame >= 0)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,92 @@
+package src;
+// Rules.java
+
+import java.util.Arrays;
+
+/**
+ * The tunable numbers of a match: how many merges a wacky-mode piece
+ * survives, what its detonation costs, and the score for clearing one to
+ * four lines. Immutable; set one on an engine with
+ * {@link GameEngine#setRules(Rules)} before the match starts.
+ *
+ * The text form, used on command lines, is a comma-separated list of any
+ * of {@code merges=4}, {@code penalty=500} and
+ * {@code lines=100/300/500/800}; omitted keys keep their defaults.
+ */
+public final class Rules {
+    public static final Rules DEFAULT = new Rules(GameEngine.MAX_MERGES, 500, 100, 300, 500, 800);
+
+    private final int maxMerges;
+    private final int detonationPenalty;
+    private final int[] lineScores;     // index = lines cleared, [0] = 0
+
+    /** lineScores: points for clearing 1, 2, 3 and 4 lines. */
+    public Rules(int maxMerges, int detonationPenalty, int... lineScores) {
+        if (maxMerges < 1)
+            throw new IllegalArgumentException("merge limit must be at least 1");
+        if (lineScores.length != 4)
+            throw new IllegalArgumentException("need scores for 1 to 4 lines, got " + lineScores.length);
+        this.maxMerges = maxMerges;
+        this.detonationPenalty = detonationPenalty;
+        this.lineScores = new int[5];
+        System.arraycopy(lineScores, 0, this.lineScores, 1, 4);
+    }
+
+    /** Parse the text form, starting from the defaults. */
+    public static Rules parse(String spec) {
+        int merges = DEFAULT.maxMerges, penalty = DEFAULT.detonationPenalty;
+        int[] lines = Arrays.copyOfRange(DEFAULT.lineScores, 1, 5);
+        for (String part : spec.split(",")) {
+            if (part.isBlank())
+                continue;
+            int eq = part.indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("expected key=value: " + part);
+            String key = part.substring(0, eq).trim(), value = part.substring(eq + 1).trim();
+            try {
+                switch (key) {
+                    case "merges":
+                        merges = Integer.parseInt(value);
+                        break;
+                    case "penalty":
+                        penalty = Integer.parseInt(value);
+                        break;
+                    case "lines": {
+                        String[] v = value.split("/");
+                        if (v.length != 4)
+                            throw new IllegalArgumentException("lines needs four scores: " + value);
+                        for (int i = 0; i < 4; i++)
+                            lines[i] = Integer.parseInt(v[i]);
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException("unknown rule " + key);
+                }
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("bad number in " + part);
+            }
+        }
+        return new Rules(merges, penalty, lines);
+    }
+
+    /** Merges after which a piece detonates. */
+    public int getMaxMerges() {
+        return maxMerges;
+    }
+
+    /** Score the merging player loses when their piece detonates. */
+    public int getDetonationPenalty() {
+        return detonationPenalty;
+    }
+
+    /** Points for clearing lines rows at once (0 for 0 or more than 4). */
+    public int lineScore(int lines) {
+        return lines > 0 && lines < lineScores.length ? lineScores[lines] : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "merges=" + maxMerges + ",penalty=" + detonationPenalty + ",lines="
+                + lineScores[1] + "/" + lineScores[2] + "/" + lineScores[3] + "/" + lineScores[4];
+    }
+}
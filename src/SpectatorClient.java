@@ -0,0 +1,224 @@
+package src;
+// SpectatorClient.java
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Watches a match streamed by {@link SpectatorServer}: rebuilds a
+ * {@link GameSnapshot} from its keyframes and deltas and checks every
+ * message's hash against the rebuilt copy. Blocking, one thread per client.
+ */
+public class SpectatorClient implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private byte[] msg = new byte[4096];
+    private GameSnapshot view;          // null until the first keyframe
+    private long keyframes, deltas, mismatches, bytes;
+
+    private SpectatorClient(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 16 * 1024));
+    }
+
+    public static SpectatorClient connect(InetSocketAddress server) throws IOException {
+        Socket s = new Socket();
+        try {
+            s.setTcpNoDelay(true);
+            s.connect(server, 5000);
+            return new SpectatorClient(s);
+        } catch (IOException ex) {
+            s.close();
+            throw ex;
+        }
+    }
+
+    /** Wait for the next message and apply it; false once the server hangs up. */
+    public boolean next() throws IOException {
+        int len;
+        try {
+            len = in.readInt();
+            if (len < 1)
+                throw new IOException("bad message length " + len);
+            if (msg.length < len)
+                msg = new byte[len * 2];
+            in.readFully(msg, 0, len);
+        } catch (EOFException ex) {
+            return false;
+        }
+        bytes += 4 + len;
+        ByteBuffer m = ByteBuffer.wrap(msg, 0, len);
+        switch (m.get()) {
+            case SpectatorServer.MSG_KEYFRAME: {
+                int cols = m.getShort(), rows = m.getShort();
+                if (view == null || view.getNumCols() != cols || view.getNumRows() != rows)
+                    view = new GameSnapshot(cols, rows);
+                for (int y = 0; y < rows; y++)
+                    view.readRow(m, y);
+                keyframes++;
+                break;
+            }
+            case SpectatorServer.MSG_DELTA: {
+                if (view == null)
+                    throw new IOException("delta before the first keyframe");
+                int n = m.getShort();
+                for (int i = 0; i < n; i++)
+                    view.readRow(m, m.getShort());
+                deltas++;
+                break;
+            }
+            default:
+                return true;            // newer message type; skip it
+        }
+        view.readRest(m, keyframes + deltas);
+        if (view.viewHash() != m.getLong())
+            mismatches++;
+        return true;
+    }
+
+    /** The rebuilt match, or null before the first keyframe. */
+    public GameSnapshot getView() {
+        return view;
+    }
+
+    public long getKeyframes() {
+        return keyframes;
+    }
+
+    public long getDeltas() {
+        return deltas;
+    }
+
+    /** Messages whose hash did not match the rebuilt state. */
+    public long getMismatches() {
+        return mismatches;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    // ─── Command line ─────────────────────────────────────────
+
+    /**
+     * {@code java src.SpectatorClient HOST:PORT} watches a running match and
+     * reports once a second. {@code java src.SpectatorClient --local CLIENTS
+     * SECONDS} serves a bot match on a local port instead and watches it with
+     * that many clients, a tenth of them too slow to keep up.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("--local")) {
+            local(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+            return;
+        }
+        if (args.length != 1) {
+            System.err.println("usage: java src.SpectatorClient HOST:PORT | --local CLIENTS SECONDS");
+            System.exit(2);
+        }
+        try (SpectatorClient c = connect(UdpTransport.parseAddress(args[0]))) {
+            long report = System.nanoTime() + 1_000_000_000L;
+            while (c.next()) {
+                if (System.nanoTime() - report >= 0) {
+                    report += 1_000_000_000L;
+                    GameSnapshot v = c.getView();
+                    System.out.printf("tick %d: %d keyframes, %d deltas, %d mismatches, %d kB%n",
+                            v != null ? v.getTick() : 0, c.keyframes, c.deltas, c.mismatches, c.bytes / 1024);
+                }
+            }
+            System.out.printf("server closed: %d keyframes, %d deltas, %d mismatches%n",
+                    c.keyframes, c.deltas, c.mismatches);
+        }
+    }
+
+    private static void local(int count, int seconds) throws Exception {
+        GameEngine engine = new GameEngine(10, 40, true, System.nanoTime());
+        // a small queue, so the slow clients show the resync path
+        SpectatorServer server = SpectatorServer.open(0, 8 * 1024);
+        GameLoop loop = new GameLoop(engine, new TickScheduler(GameEngine.TICK_RATE, 5),
+                () -> server.publish(engine));
+        InetSocketAddress at = new InetSocketAddress("127.0.0.1", server.getPort());
+
+        List<SpectatorClient> clients = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            SpectatorClient c = connect(at);
+            boolean slow = i % 10 == 9;
+            if (slow)
+                c.socket.setReceiveBufferSize(4096);
+            Thread t = new Thread(() -> {
+                try {
+                    while (c.next()) {
+                        if (slow)
+                            Thread.sleep(200);
+                    }
+                } catch (IOException | InterruptedException ex) {
+                    // closed
+                }
+            }, "spectator-" + i);
+            t.setDaemon(true);
+            t.start();
+            clients.add(c);
+            threads.add(t);
+        }
+
+        // the server owns the engine through the loop; bots press keys
+        loop.start();
+        Random r = new Random();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end && !engine.isOver()) {
+            if (r.nextInt(3) == 0) {
+                int key = r.nextInt(InputSampler.KEY_COUNT);
+                if (key == InputSampler.HARD_DROP && r.nextInt(4) != 0)
+                    key = InputSampler.SOFT_DROP;
+                int type = r.nextBoolean() ? GameEngine.CMD_KEY_DOWN : GameEngine.CMD_KEY_UP;
+                loop.submit(GameEngine.command(type, 1 + r.nextInt(2), key));
+            }
+            Thread.sleep(16);
+        }
+        loop.stop();
+        Thread.sleep(500);              // let the fast clients drain
+        GameSnapshot truth = new GameSnapshot(engine.getNumCols(), engine.getNumRows());
+        truth.capture(engine, 0);
+        long want = truth.viewHash();
+        System.out.printf("%d clients for %d s: %d kB sent, %d resyncs%n",
+                count, seconds, server.getBytesSent() / 1024, server.getResyncs());
+        server.close();
+        for (Thread t : threads)
+            t.join(2000);
+
+        long mismatches = 0, current = 0, slowKeyframes = 0, fastKeyframes = 0;
+        for (int i = 0; i < count; i++) {
+            SpectatorClient c = clients.get(i);
+            mismatches += c.mismatches;
+            if (c.view != null && c.view.viewHash() == want)
+                current++;
+            if (i % 10 == 9)
+                slowKeyframes += c.keyframes;
+            else
+                fastKeyframes += c.keyframes;
+            c.close();
+        }
+        int slow = count / 10, fast = count - slow;
+        System.out.printf("%d of %d clients match the final state, %d hash mismatches;"
+                + " keyframes per client: %.1f fast, %.1f slow%n",
+                current, count, mismatches,
+                fast > 0 ? (double) fastKeyframes / fast : 0.0,
+                slow > 0 ? (double) slowKeyframes / slow : 0.0);
+        if (mismatches > 0)
+            System.exit(1);
+    }
+}
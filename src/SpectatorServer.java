@@ -0,0 +1,382 @@
+package src;
+// SpectatorServer.java
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Streams a match to any number of TCP spectators from one non-blocking
+ * selector thread. The simulation thread calls {@link #publish(GameEngine)}
+ * after each batch of ticks; that encodes one message, shared by every
+ * client it goes to:
+ * <ul>
+ * <li>a keyframe (the whole board plus both players) every
+ * {@link #KEYFRAME_INTERVAL} ticks, and whenever a client needs one;</li>
+ * <li>otherwise a delta holding only the board rows the board journal
+ * reports as changed, plus both players.</li>
+ * </ul>
+ * Each message ends with {@link GameSnapshot#viewHash()} of the state it
+ * describes, so {@link SpectatorClient} can check its copy.
+ *
+ * A client gets nothing until the next keyframe. If its unsent messages
+ * would pass {@code maxQueued} bytes, the ones not yet started are thrown
+ * away and it waits for a keyframe again, so a slow reader costs a bounded
+ * amount of memory and never holds up the others.
+ *
+ * Framing: each message is its length (4 bytes) and then a type byte.
+ * <pre>
+ *   keyframe (1): cols, rows (2 bytes each), every row, rest, hash
+ *   delta (2):    row count (2 bytes), then per row its y (2 bytes) and
+ *                 cells, rest, hash
+ * </pre>
+ * A row is cols packed cells (2 bytes each); "rest" is what
+ * {@link GameSnapshot} writes after the board (tick, winner, players).
+ */
+public class SpectatorServer implements Closeable {
+    static final int MSG_KEYFRAME = 1;
+    static final int MSG_DELTA = 2;
+    public static final int KEYFRAME_INTERVAL = 2 * GameEngine.TICK_RATE;
+    public static final int DEFAULT_MAX_QUEUED = 32 * 1024;
+
+    /** One encoded message, shared by every client it goes to. */
+    private static final class Frame {
+        final byte[] data;
+        final boolean keyframe;
+        final boolean catchUp;  // keyframe only for clients waiting for one
+
+        Frame(byte[] data, boolean keyframe, boolean catchUp) {
+            this.data = data;
+            this.keyframe = keyframe;
+            this.catchUp = catchUp;
+        }
+    }
+
+    private static final class Client {
+        final SocketChannel channel;
+        SelectionKey key;
+        final ArrayDeque<Frame> queue = new ArrayDeque<>();
+        int offset;             // bytes of the head frame already written
+        int queued;             // bytes not yet written
+        boolean synced;         // has had a keyframe and every delta since
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final int maxQueued;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Frame> outbox = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer discard = ByteBuffer.allocate(256);
+    private final List<Client> clients = new ArrayList<>();     // selector thread only
+    private volatile boolean open = true;
+    private volatile boolean keyframeWanted;
+    private volatile int clientCount;
+    private volatile long bytesSent, resyncs;
+
+    // simulation thread only
+    private GameSnapshot view;
+    private BoardJournal.Cursor cursor;
+    private final BitSet dirty = new BitSet();
+    private long lastKeyframe;
+    private long published;
+
+    private SpectatorServer(Selector selector, ServerSocketChannel server, int maxQueued) {
+        this.selector = selector;
+        this.server = server;
+        this.maxQueued = maxQueued;
+        thread = new Thread(this::run, "spectators");
+        thread.setDaemon(true);
+    }
+
+    /** Listen on port (0 = any) with the default per-client queue. */
+    public static SpectatorServer open(int port) throws IOException {
+        return open(port, DEFAULT_MAX_QUEUED);
+    }
+
+    /** maxQueued: unsent bytes a client may fall behind by before it is resynced. */
+    public static SpectatorServer open(int port, int maxQueued) throws IOException {
+        Selector selector = Selector.open();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ex) {
+            server.close();
+            selector.close();
+            throw ex;
+        }
+        SpectatorServer s = new SpectatorServer(selector, server, maxQueued);
+        s.thread.start();
+        return s;
+    }
+
+    // ─── Simulation side ──────────────────────────────────────
+
+    /**
+     * Send the engine's current state to every spectator. Call on the
+     * thread that owns the engine, after each batch of ticks.
+     */
+    public void publish(GameEngine engine) {
+        int cols = engine.getNumCols(), rows = engine.getNumRows();
+        BoardJournal journal = engine.getBoard().getJournal();
+        boolean key = false;
+        if (view == null || view.getNumCols() != cols || view.getNumRows() != rows) {
+            view = new GameSnapshot(cols, rows);
+            cursor = journal.newCursor();
+            key = true;
+        }
+        dirty.clear();
+        journal.drain(cursor, dirty, null);
+        view.capture(engine, ++published);
+        if (clientCount == 0) {
+            keyframeWanted = true;      // whoever connects next starts from one
+            return;
+        }
+
+        long tick = view.getTick();
+        if (key || tick < lastKeyframe || tick - lastKeyframe >= KEYFRAME_INTERVAL) {
+            // scheduled keyframe: everyone gets it
+            keyframeWanted = false;
+            lastKeyframe = tick;
+            outbox.add(new Frame(keyframe(), true, false));
+        } else {
+            // in-sync clients get the delta; a client that connected or
+            // fell behind gets a keyframe of its own
+            outbox.add(new Frame(delta(), false, false));
+            if (keyframeWanted) {
+                keyframeWanted = false;
+                outbox.add(new Frame(keyframe(), true, true));
+            }
+        }
+        selector.wakeup();
+    }
+
+    private byte[] keyframe() {
+        int cols = view.getNumCols(), rows = view.getNumRows();
+        ByteBuffer out = ByteBuffer.allocate(9 + rows * 2 * cols + view.restSize() + 8);
+        out.putInt(out.capacity() - 4);
+        out.put((byte) MSG_KEYFRAME);
+        out.putShort((short) cols);
+        out.putShort((short) rows);
+        for (int y = 0; y < rows; y++)
+            view.writeRow(out, y);
+        view.writeRest(out);
+        out.putLong(view.viewHash());
+        return out.array();
+    }
+
+    private byte[] delta() {
+        int n = dirty.cardinality();
+        ByteBuffer out = ByteBuffer.allocate(7 + n * (2 + 2 * view.getNumCols()) + view.restSize() + 8);
+        out.putInt(out.capacity() - 4);
+        out.put((byte) MSG_DELTA);
+        out.putShort((short) n);
+        for (int y = dirty.nextSetBit(0); y >= 0; y = dirty.nextSetBit(y + 1)) {
+            out.putShort((short) y);
+            view.writeRow(out, y);
+        }
+        view.writeRest(out);
+        out.putLong(view.viewHash());
+        return out.array();
+    }
+
+    // ─── Selector thread ──────────────────────────────────────
+
+    private void run() {
+        while (open) {
+            try {
+                selector.select();
+            } catch (IOException ex) {
+                break;
+            }
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey k = it.next();
+                it.remove();
+                if (!k.isValid())
+                    continue;
+                if (k.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                Client c = (Client) k.attachment();
+                if (k.isReadable())
+                    read(c);
+                if (k.isValid() && k.isWritable())
+                    flush(c);
+            }
+            Frame f;
+            while ((f = outbox.poll()) != null) {
+                for (int i = clients.size() - 1; i >= 0; i--)
+                    enqueue(clients.get(i), f);
+            }
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                Client c = clients.get(i);
+                // clients waiting on OP_WRITE are flushed when it fires
+                if (!c.queue.isEmpty() && (c.key.interestOps() & SelectionKey.OP_WRITE) == 0)
+                    flush(c);
+            }
+        }
+        for (int i = clients.size() - 1; i >= 0; i--)
+            drop(clients.get(i));
+        try {
+            server.close();
+            selector.close();
+        } catch (IOException ex) {
+            // closing anyway
+        }
+    }
+
+    private void accept() {
+        SocketChannel ch = null;
+        try {
+            ch = server.accept();
+            if (ch == null)
+                return;
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            // keep the kernel's share small so the queue limit means something
+            ch.setOption(StandardSocketOptions.SO_SNDBUF, maxQueued);
+            Client c = new Client(ch);
+            c.key = ch.register(selector, SelectionKey.OP_READ, c);
+            clients.add(c);
+            clientCount = clients.size();
+            keyframeWanted = true;
+        } catch (IOException ex) {
+            if (ch != null) {
+                try {
+                    ch.close();
+                } catch (IOException ignored) {
+                    // already failing
+                }
+            }
+        }
+    }
+
+    /** Spectators have nothing to say; reading only notices hang-ups. */
+    private void read(Client c) {
+        try {
+            discard.clear();
+            if (c.channel.read(discard) < 0)
+                drop(c);
+        } catch (IOException ex) {
+            drop(c);
+        }
+    }
+
+    private void enqueue(Client c, Frame f) {
+        if (f.catchUp && c.synced)
+            return;
+        if (f.keyframe) {
+            // a keyframe supersedes everything not yet started
+            trim(c);
+            c.synced = true;
+        } else if (!c.synced) {
+            return;
+        } else if (c.queued + f.data.length > maxQueued) {
+            trim(c);
+            c.synced = false;
+            resyncs++;
+            keyframeWanted = true;
+            return;
+        }
+        c.queue.add(f);
+        c.queued += f.data.length;
+    }
+
+    /** Drop queued frames, except one already partly written. */
+    private void trim(Client c) {
+        Frame head = c.offset > 0 ? c.queue.poll() : null;
+        c.queue.clear();
+        c.queued = 0;
+        if (head != null) {
+            c.queue.add(head);
+            c.queued = head.data.length - c.offset;
+        }
+    }
+
+    private void flush(Client c) {
+        try {
+            while (!c.queue.isEmpty()) {
+                Frame f = c.queue.peek();
+                int n = c.channel.write(ByteBuffer.wrap(f.data, c.offset, f.data.length - c.offset));
+                c.offset += n;
+                c.queued -= n;
+                bytesSent += n;
+                if (c.offset < f.data.length) {
+                    c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                c.queue.poll();
+                c.offset = 0;
+            }
+            c.key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException ex) {
+            drop(c);
+        }
+    }
+
+    private void drop(Client c) {
+        c.key.cancel();
+        try {
+            c.channel.close();
+        } catch (IOException ex) {
+            // gone either way
+        }
+        clients.remove(c);
+        clientCount = clients.size();
+    }
+
+    /** Disconnect everyone and stop listening. */
+    @Override
+    public void close() {
+        open = false;
+        selector.wakeup();
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    // ─── Stats ────────────────────────────────────────────────
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public int getClientCount() {
+        return clientCount;
+    }
+
+    /** Times a client fell too far behind and had to wait for a keyframe. */
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+}
@@ -2,60 +2,113 @@ package src;
 // Tetramino.java
 
 import java.awt.Point;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Represents a Tetris piece: shape ID, orientation, tiles, and pivot.
+ *
+ * The live state is a handful of ints (shape, orientation, pivot x/y);
+ * tile positions are pivot + a precomputed offset row for the current
+ * (shape, orientation), so rotating and moving never allocate. Merged
+ * pieces from wacky mode carry their own offset arrays instead.
  */
 public class Tetramino {
-    private List<Point> tiles; // absolute board positions
-    private Point pivot; // absolute rotation pivot
     private int shapeID; // 0=I,1=O,2=T,3=J,4=L,5=S,6=Z
     private int orientation; // 0–3
     private int mergeCount = 0;
+    private int pivotX, pivotY; // absolute rotation pivot
+
+    // offsets of the current orientation, relative to the pivot
+    private int[] offX, offY;
+    private int size;
+    private boolean custom; // offsets are our own (merged piece), not the table's
+
+    // List<Point> view of the tiles, refreshed lazily from the int state
+    private Point[] tilePoints = new Point[4];
+    private final List<Point> tileView = new ArrayList<>(4);
+    private final List<Point> tileViewRO = Collections.unmodifiableList(tileView);
+    private boolean viewStale = true;
+
     // Spawn‑orientation offsets for each shape
-    private static final Point[][] OFFSETS = {
-            { new Point(0, -2), new Point(0, -1), new Point(0, 0), new Point(0, 1) }, // I
-            { new Point(0, 0), new Point(1, 0), new Point(0, 1), new Point(1, 1) }, // O
-            { new Point(0, -1), new Point(-1, 0), new Point(0, 0), new Point(1, 0) }, // T
-            { new Point(-1, -1), new Point(-1, 0), new Point(0, 0), new Point(1, 0) }, // J
-            { new Point(1, -1), new Point(-1, 0), new Point(0, 0), new Point(1, 0) }, // L
-            { new Point(0, -1), new Point(1, -1), new Point(-1, 0), new Point(0, 0) }, // S
-            { new Point(-1, -1), new Point(0, -1), new Point(0, 0), new Point(1, 0) } // Z
+    private static final int[][][] OFFSETS = {
+            { { 0, -2 }, { 0, -1 }, { 0, 0 }, { 0, 1 } }, // I
+            { { 0, 0 }, { 1, 0 }, { 0, 1 }, { 1, 1 } }, // O
+            { { 0, -1 }, { -1, 0 }, { 0, 0 }, { 1, 0 } }, // T
+            { { -1, -1 }, { -1, 0 }, { 0, 0 }, { 1, 0 } }, // J
+            { { 1, -1 }, { -1, 0 }, { 0, 0 }, { 1, 0 } }, // L
+            { { 0, -1 }, { 1, -1 }, { -1, 0 }, { 0, 0 } }, // S
+            { { -1, -1 }, { 0, -1 }, { 0, 0 }, { 1, 0 } } // Z
     };
 
     // Pivot offsets in spawn orientation (all zero here)
-    private static final Point[] PIVOTS = {
-            new Point(0, 0), // I
-            new Point(0, 0), // O
-            new Point(0, 0), // T
-            new Point(0, 0), // J
-            new Point(0, 0), // L
-            new Point(0, 0), // S
-            new Point(0, 0) // Z
+    private static final int[][] PIVOTS = {
+            { 0, 0 }, // I
+            { 0, 0 }, // O
+            { 0, 0 }, // T
+            { 0, 0 }, // J
+            { 0, 0 }, // L
+            { 0, 0 }, // S
+            { 0, 0 } // Z
     };
 
+    // Rotation tables: TABLE_X[shape][orientation][tile], each orientation
+    // the previous one turned 90° clockwise about the pivot.
+    private static final int[][][] TABLE_X = new int[7][4][4];
+    private static final int[][][] TABLE_Y = new int[7][4][4];
+
+    // I‑piece pivot shift applied on entering each orientation
+    private static final int[] I_SHIFT = { -1, 0, +1, 0 };
+
+    static {
+        for (int s = 0; s < 7; s++) {
+            for (int i = 0; i < 4; i++) {
+                int x = OFFSETS[s][i][0], y = OFFSETS[s][i][1];
+                for (int o = 0; o < 4; o++) {
+                    // square never rotates
+                    boolean turn = s != 1 && o > 0;
+                    if (turn) {
+                        int t = x;
+                        x = -y;
+                        y = t;
+                    }
+                    TABLE_X[s][o][i] = x;
+                    TABLE_Y[s][o][i] = y;
+                }
+            }
+        }
+    }
+
     public Tetramino() {
-        tiles = new ArrayList<>(4);
+        for (int i = 0; i < tilePoints.length; i++)
+            tilePoints[i] = new Point();
+        offX = new int[0];
+        offY = offX;
     }
 
     /** Place a new piece of the given shape at spawnPoint. */
     public void generateNewPiece(int shapeID, Point spawnPoint) {
+        generateNewPiece(shapeID, spawnPoint.x, spawnPoint.y);
+    }
+
+    /** Place a new piece of the given shape with its spawn point at (x,y). */
+    public void generateNewPiece(int shapeID, int x, int y) {
         this.shapeID = shapeID;
         this.orientation = 0;
-        tiles.clear();
-
-        // compute absolute pivot
-        Point po = PIVOTS[shapeID];
-        pivot = new Point(spawnPoint.x + po.x,
-                spawnPoint.y + po.y);
+        this.pivotX = x + PIVOTS[shapeID][0];
+        this.pivotY = y + PIVOTS[shapeID][1];
+        useTable();
+    }
 
-        // place all tiles
-        for (Point off : OFFSETS[shapeID]) {
-            tiles.add(new Point(spawnPoint.x + off.x,
-                    spawnPoint.y + off.y));
-        }
+    private void useTable() {
+        custom = false;
+        offX = TABLE_X[shapeID][orientation];
+        offY = TABLE_Y[shapeID][orientation];
+        size = 4;
+        viewStale = true;
     }
 
     /**
@@ -64,30 +117,47 @@ public class Tetramino {
      * I‑piece gets an extra X‑shift when entering vertical (orient 2 or 0).
      */
     public void rotatePiece(int delta) {
-        // quare: no rotation, no shift
+        // square: no rotation, no shift
         if (shapeID == 1)
             return;
         boolean cw = delta > 0;
 
-        // geometric rotation around pivot
-        for (Point t : tiles) {
-            int rx = t.x - pivot.x;
-            int ry = t.y - pivot.y;
-            int nx = cw ? -ry : ry;
-            int ny = cw ? rx : -rx;
-            t.x = pivot.x + nx;
-            t.y = pivot.y + ny;
-        }
-
         // update orientation 0..3
         orientation = (orientation + delta + 4) % 4;
+        if (custom) {
+            // merged pieces have no table: turn their offsets directly
+            for (int i = 0; i < size; i++) {
+                int rx = offX[i], ry = offY[i];
+                offX[i] = cw ? -ry : ry;
+                offY[i] = cw ? rx : -rx;
+            }
+            viewStale = true;
+        } else {
+            useTable();
+        }
 
         // special I‑piece shift: only when new orientation is vertical
-        if (shapeID == 0 && orientation % 2 == 0) {
-            // orient==2 (vertical inverted): shift +1
-            // orient==0 (vertical spawn): shift -1 from prior horiz
-            int shift = (orientation == 2) ? +1 : -1;
-            translate(shift, 0);
+        if (shapeID == 0)
+            translate(I_SHIFT[orientation], 0);
+    }
+
+    /** Exactly undo a {@link #rotatePiece(int)} with the same delta. */
+    public void undoRotate(int delta) {
+        if (shapeID == 1)
+            return;
+        if (shapeID == 0)
+            translate(-I_SHIFT[orientation], 0);
+        orientation = (orientation - delta + 4) % 4;
+        if (custom) {
+            boolean cw = delta > 0;
+            for (int i = 0; i < size; i++) {
+                int rx = offX[i], ry = offY[i];
+                offX[i] = cw ? ry : -ry;
+                offY[i] = cw ? -rx : rx;
+            }
+            viewStale = true;
+        } else {
+            useTable();
         }
     }
 
@@ -104,48 +174,92 @@ public class Tetramino {
 
     /** Translate all tiles and pivot by (dx,dy). */
     private void translate(int dx, int dy) {
-        for (Point t : tiles) {
-            t.x += dx;
-            t.y += dy;
-        }
-        pivot.x += dx;
-        pivot.y += dy;
+        pivotX += dx;
+        pivotY += dy;
+        viewStale = true;
     }
 
     /** Deep‑copy this Tetramino (including pivot and orientation). */
     public Tetramino copy() {
         Tetramino c = new Tetramino();
-        c.shapeID = this.shapeID;
-        c.orientation = this.orientation;
-        c.pivot = new Point(this.pivot);
-        c.mergeCount = this.mergeCount;
-        for (Point t : this.tiles) {
-            c.tiles.add(new Point(t));
-        }
+        c.copyFrom(this);
         return c;
     }
 
+    /** Overwrite this piece with other's state, reusing our own storage. */
+    public void copyFrom(Tetramino other) {
+        shapeID = other.shapeID;
+        orientation = other.orientation;
+        pivotX = other.pivotX;
+        pivotY = other.pivotY;
+        mergeCount = other.mergeCount;
+        if (other.custom) {
+            ensureCustom(other.size);
+            System.arraycopy(other.offX, 0, offX, 0, other.size);
+            System.arraycopy(other.offY, 0, offY, 0, other.size);
+            size = other.size;
+            viewStale = true;
+        } else {
+            useTable();
+        }
+    }
+
     /**
      * Shift the piece by (dx,dy) in board coordinates (also moves the pivot).
      */
     public void shift(int dx, int dy) {
-        // reuse your internal translate
         translate(dx, dy);
     }
 
     /** Clear out the current tile list. */
     public void clearTiles() {
-        tiles.clear();
+        ensureCustom(0);
+        size = 0;
+        viewStale = true;
     }
 
     /** Add a single tile (absolute coord). */
     public void addTile(Point p) {
-        tiles.add(p);
+        ensureCustom(size + 1);
+        offX[size] = p.x - pivotX;
+        offY[size] = p.y - pivotY;
+        size++;
+        viewStale = true;
     }
 
-    /** Force set the pivot (for next rotations). */
+    /** Force set the pivot (for next rotations); tiles stay where they are. */
     public void setPivot(Point p) {
-        this.pivot = p;
+        if (!custom) {
+            ensureCustom(size);
+        }
+        int dx = p.x - pivotX, dy = p.y - pivotY;
+        for (int i = 0; i < size; i++) {
+            offX[i] -= dx;
+            offY[i] -= dy;
+        }
+        pivotX = p.x;
+        pivotY = p.y;
+        viewStale = true;
+    }
+
+    /**
+     * Switch to private offset arrays (keeping current tiles) with room for
+     * at least capacity tiles. Only merges and copies of merged pieces get
+     * here; they grow as pieces merge again.
+     */
+    private void ensureCustom(int capacity) {
+        if (custom && offX.length >= capacity)
+            return;
+        int n = Math.max(8, Math.max(capacity, offX.length * 2));
+        offX = Arrays.copyOf(offX, n);
+        offY = Arrays.copyOf(offY, n);
+        custom = true;
+        if (tilePoints.length < n) {
+            int old = tilePoints.length;
+            tilePoints = Arrays.copyOf(tilePoints, n);
+            for (int i = old; i < n; i++)
+                tilePoints[i] = new Point();
+        }
     }
 
     public int getMergeCount() {
@@ -156,10 +270,129 @@ public class Tetramino {
         this.mergeCount = count;
     }
 
+    // ─── Packed state ─────────────────────────────────────────
+
+    /**
+     * Standard pieces packed into one long:
+     * shape (3 bits) | orientation (2) | merge count (8) | pivot x (16) | pivot y (16).
+     * Merged pieces have free-form tiles and cannot be packed.
+     */
+    public long pack() {
+        if (custom)
+            throw new IllegalStateException("merged pieces have no packed form");
+        return shapeID
+                | (long) orientation << 3
+                | (long) (mergeCount & 0xFF) << 5
+                | (pivotX & 0xFFFFL) << 13
+                | (pivotY & 0xFFFFL) << 29;
+    }
+
+    /** Restore a state produced by {@link #pack()}. */
+    public void unpack(long packed) {
+        shapeID = (int) (packed & 7);
+        orientation = (int) ((packed >>> 3) & 3);
+        mergeCount = (int) ((packed >>> 5) & 0xFF);
+        pivotX = (short) (packed >>> 13);
+        pivotY = (short) (packed >>> 29);
+        useTable();
+    }
+
+    /** Bytes {@link #save} writes for the current piece. */
+    public int stateSize() {
+        return 13 + (custom ? size * 4 : 0);
+    }
+
+    /**
+     * Write the full piece, merged tiles included:
+     * shape, orientation, merge count (bytes), pivot x/y (ints),
+     * tile count (short, 0 for a standard piece) and the tile offsets.
+     */
+    public void save(ByteBuffer out) {
+        out.put((byte) shapeID);
+        out.put((byte) orientation);
+        out.put((byte) mergeCount);
+        out.putInt(pivotX);
+        out.putInt(pivotY);
+        out.putShort((short) (custom ? size : 0));
+        if (custom) {
+            for (int i = 0; i < size; i++) {
+                out.putShort((short) offX[i]);
+                out.putShort((short) offY[i]);
+            }
+        }
+    }
+
+    /** Restore a piece written by {@link #save}, reusing our own storage. */
+    public void load(ByteBuffer in) {
+        shapeID = in.get();
+        orientation = in.get();
+        mergeCount = in.get();
+        pivotX = in.getInt();
+        pivotY = in.getInt();
+        int n = in.getShort();
+        if (n == 0) {
+            useTable();
+            return;
+        }
+        ensureCustom(n);
+        for (int i = 0; i < n; i++) {
+            offX[i] = in.getShort();
+            offY[i] = in.getShort();
+        }
+        size = n;
+        viewStale = true;
+    }
+
+    /** Fold shape, placement and tiles into a running state hash. */
+    public long hash(long h) {
+        h = GameEngine.mix(h, shapeID | orientation << 3 | mergeCount << 5);
+        h = GameEngine.mix(h, (long) pivotX << 32 | (pivotY & 0xFFFFFFFFL));
+        if (custom) {
+            for (int i = 0; i < size; i++)
+                h = GameEngine.mix(h, (long) offX[i] << 32 | (offY[i] & 0xFFFFFFFFL));
+        }
+        return h;
+    }
+
     // ─── Accessors ────────────────────────────────────────────
 
+    /**
+     * Absolute tile positions. The list and its Points belong to this piece
+     * and are updated in place as it moves; copy them to keep a snapshot.
+     */
     public List<Point> getTiles() {
-        return tiles;
+        if (viewStale) {
+            tileView.clear();
+            for (int i = 0; i < size; i++) {
+                Point p = tilePoints[i];
+                p.x = pivotX + offX[i];
+                p.y = pivotY + offY[i];
+                tileView.add(p);
+            }
+            viewStale = false;
+        }
+        return tileViewRO;
+    }
+
+    /** Number of tiles (4, or more once merged). */
+    public int size() {
+        return size;
+    }
+
+    public int tileX(int i) {
+        return pivotX + offX[i];
+    }
+
+    public int tileY(int i) {
+        return pivotY + offY[i];
+    }
+
+    public int getPivotX() {
+        return pivotX;
+    }
+
+    public int getPivotY() {
+        return pivotY;
     }
 
     public int getShapeID() {
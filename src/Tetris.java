@@ -4,41 +4,86 @@ package src;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 import javax.sound.sampled.*;
 import javax.swing.*;
 
+/**
+ * Swing view and controller for a {@link GameEngine}: draws the match,
+ * turns key presses into engine input, and plays the engine's sounds.
+ */
 public class Tetris extends JPanel {
     private static final long serialVersionUID = 1L;
-    private final boolean wackyMode;
-    private final Board board;
-    private final Player p1, p2;
-    private boolean isPaused = false;
-    private boolean flash = false;
-    private PendingDetonation pendingDetonation;
+    private final GameEngine engine;
+    private final GameLoop loop;
+    private final RollbackSession session;  // online match, or null for hot seat
+    private final SpectatorServer spectators;   // -Dtetris.spectate, or null
+    private ReplayWriter replay;        // current match's recording, if any
+    // what this frame draws; only the drawing thread (EDT, or the render
+    // thread when active) takes snapshots, key handling just peeks
+    private volatile GameSnapshot snap;
+    private final ActiveRenderer renderer;  // -Dtetris.render=active, or null
+    private final List<Color> p1Colors, p2Colors;
+    private volatile boolean isPaused = false;
+    private volatile boolean flash = false;
     private final List<Explosion> explosions = new ArrayList<>();
     private final Timer repaintTimer;
+    // what the screen shows, so a frame tick repaints only what changed
+    // (passive mode, EDT only)
+    private final long[] shownRows;
+    private final long[] shownPiece = new long[3];
+    private final Rectangle[] shownPieceArea = new Rectangle[3];
+    private final long[] shownQueue = new long[3];
+    private long shownScores;
+    private int shownOverlay = -1;          // flash/over/waiting/paused bits, -1 before the first frame
+    private final AtomicBoolean framePending = new AtomicBoolean();
+    private long requestedStamp;            // simulation thread only
+    private boolean stopped;                // EDT only
+    private long paints;                    // paintComponent calls in passive mode, EDT only
+    private final Timer cpuLog;             // -Dtetris.cpulog, or null
     private Clip p1MergeClip, p2MergeClip;
     private final int tileSize = 26;
     private final int previewSize = tileSize * 4;
     private final int numCols, numRows;
     private final int boardWidth, boardHeight;
-    private volatile boolean runningGameLoop = false;
-    private Thread gameLoopThread;
     private boolean isFullscreen = false;
     private Rectangle windowedBounds;
-    public static final int MAX_MERGES = 4;
-    private static final int DETONATION_PENALTY = 500;
     private static final int SIDE_PADDING = 10;
-    // DAS handlers for smooth horizontal movement
-    private final DASHandler p1Left, p1Right, p2Left, p2Right;
-
+    private static final int SCORE_BOX_H = 36, SCORE_PAD = 12;
+
+    // static layers (background, board, grid, center line), drawn once per
+    // panel size and blitted every frame; EDT only
+    private BufferedImage backdrop, flashBackdrop;
+    private int backdropW, backdropH;
+    private double backdropSX, backdropSY;
+    private boolean backdropFullscreen;
+    private static final Stroke BORDER_STROKE = new BasicStroke(2);
+    private static final Stroke GRID_STROKE = new BasicStroke(1);
+    private static final Stroke CENTER_STROKE = new BasicStroke(
+            3, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER,
+            10, new float[] { 8, 8 }, 0);
+    private TileAtlas atlas;                // drawing thread only
+    private final BoardLayer board = new BoardLayer();  // drawing thread only
+    private static final Color GRID_COLOR = new Color(255, 255, 255, 30);
+    private static final Color FLASH_COLOR = new Color(15, 15, 15);
+
+    private static final List<Color> BASE_COLORS = Arrays.asList(
+            Color.decode("#FF0000"), // red
+            Color.decode("#FF7F00"), // orange
+            Color.decode("#FFFF00"), // yellow
+            Color.decode("#00FF00"), // green
+            Color.decode("#00FFFF"), // cyan
+            Color.decode("#0000FF"), // blue
+            Color.decode("#8B00FF") // purple
+    );
     // Controls
     private final JButton pauseButton;
     private final JButton restartButton;
@@ -50,24 +95,48 @@ public class Tetris extends JPanel {
         this.numRows = rows;
         this.boardWidth = cols * tileSize;
         this.boardHeight = rows * tileSize;
-        this.wackyMode = wackyMode;
-        board = new Board(cols, rows);
-        p1 = new Player(1, Direction.DOWN, new Point(cols / 2, 4), board, this);
-        p2 = new Player(2, Direction.UP, new Point(cols / 2, rows - 4), board, this);
-        initGame();
-
-        // Initialize DAS handlers
-        p1Left = new DASHandler(-1, p1);
-        p1Right = new DASHandler(+1, p1);
-        p2Left = new DASHandler(-1, p2);
-        p2Right = new DASHandler(+1, p2);
+        this.shownRows = new long[rows];
+        // both machines of an online match must start from the same seed
+        long seed = Long.getLong("tetris.net.seed", System.nanoTime());
+        engine = new GameEngine(cols, rows, wackyMode, seed);
+        engine.setListener(new Effects());
+        // handling in ticks at 60 Hz: e.g. -Dtetris.das=10 -Dtetris.arr=0
+        engine.setHandling(
+                Integer.getInteger("tetris.das", 12),
+                Integer.getInteger("tetris.arr", 3),
+                Integer.getInteger("tetris.sdf", 2));
+        // the simulation thread owns the engine; we only send commands and
+        // draw the snapshots it publishes
+        session = openSession(engine);
+        spectators = openSpectators();
+        TickScheduler ticks = new TickScheduler(GameEngine.TICK_RATE, 5);
+        renderer = "active".equals(System.getProperty("tetris.render"))
+                ? new ActiveRenderer(this::activeFrame)
+                : null;
+        // an active renderer draws every refresh anyway; Swing needs a nudge
+        Runnable show = renderer != null ? () -> {
+        } : this::viewPublished;
+        Runnable published = spectators == null ? show : () -> {
+            spectators.publish(engine);     // on the simulation thread
+            show.run();
+        };
+        loop = session != null
+                ? new GameLoop(session, ticks, published)
+                : new GameLoop(engine, ticks, published);
+        snap = loop.snapshot();
+
+        // Choose color palettes
+        p1Colors = BASE_COLORS;
+        // for Player 2, shift each hue just a bit
+        p2Colors = BASE_COLORS.stream()
+                .map(c -> shiftHSB(c, 1f, -0.3f, 0.1f))
+                .collect(Collectors.toList());
 
         // layout & controls
         setLayout(new BorderLayout());
         pauseButton = new JButton("Pause");
         pauseButton.addActionListener(e -> {
-            isPaused = !isPaused;
-            pauseButton.setText(isPaused ? "Resume" : "Pause");
+            togglePause();
             Tetris.this.requestFocusInWindow();
 
         });
@@ -126,11 +195,18 @@ public class Tetris extends JPanel {
             b.setFont(b.getFont().deriveFont(Font.BOLD, 16f));
         }
 
+        // an online match can't be paused or restarted from one side
+        pauseButton.setVisible(session == null);
         controlPanel.add(pauseButton);
         controlPanel.add(restartButton);
         controlPanel.add(fullscreenButton);
         controlPanel.add(menuButton);
         add(controlPanel, BorderLayout.SOUTH);
+        if (renderer != null) {
+            // the match gets its own canvas above the controls
+            setBackground(Color.BLACK);
+            add(renderer, BorderLayout.CENTER);
+        }
 
         setFocusable(true);
         addKeyListener(new KeyAdapter() {
@@ -138,8 +214,7 @@ public class Tetris extends JPanel {
             public void keyPressed(KeyEvent e) {
                 int code = e.getKeyCode();
                 if (code == KeyEvent.VK_P) {
-                    isPaused = !isPaused;
-                    pauseButton.setText(isPaused ? "Resume" : "Pause");
+                    togglePause();
                     return;
                 }
 
@@ -147,80 +222,146 @@ public class Tetris extends JPanel {
                 if (isPaused) {
                     return;
                 }
-                // DAS movement
-                switch (code) {
-                    case KeyEvent.VK_A:
-                        p1Left.keyDown();
-                        return;
-                    case KeyEvent.VK_D:
-                        p1Right.keyDown();
-                        return;
-                    case KeyEvent.VK_LEFT:
-                        p2Left.keyDown();
-                        return;
-                    case KeyEvent.VK_RIGHT:
-                        p2Right.keyDown();
-                        return;
-                }
-                // other game controls
-                if (!p1.hasLost() && !p2.hasLost()) {
-                    switch (code) {
-                        // Player 1
-                        case KeyEvent.VK_W:
-                            p1.rotate(+1);
-                            break;
-                        case KeyEvent.VK_S:
-                            p1.drop();
-                            break;
-                        case KeyEvent.VK_V:
-                            p1.hardDrop();
-                            break;
-                        // Player 2
-                        case KeyEvent.VK_UP:
-                            p2.rotate(+1);
-                            break;
-                        case KeyEvent.VK_DOWN:
-                            p2.drop();
-                            break;
-                        case KeyEvent.VK_PERIOD:
-                            p2.hardDrop();
-                            break;
-                        case KeyEvent.VK_C:
-                            p1.hold();
-                            break;
-                        case KeyEvent.VK_COMMA:
-                            p2.hold();
-                            break;
-                        case KeyEvent.VK_P:
-                            isPaused = !isPaused;
-                            break;
-                    }
-                }
-                repaint();
+                // key edges only; DAS, ARR and soft drop repeat are
+                // counted in ticks by the engine's input samplers
+                int bind = binding(code);
+                if (bind >= 0 && !snap.isOver())
+                    send(GameEngine.CMD_KEY_DOWN, bind >> 8, bind & 0xFF);
             }
 
             @Override
             public void keyReleased(KeyEvent e) {
-                switch (e.getKeyCode()) {
-                    case KeyEvent.VK_A:
-                        p1Left.keyUp();
-                        break;
-                    case KeyEvent.VK_D:
-                        p1Right.keyUp();
-                        break;
-                    case KeyEvent.VK_LEFT:
-                        p2Left.keyUp();
-                        break;
-                    case KeyEvent.VK_RIGHT:
-                        p2Right.keyUp();
-                        break;
-
-                }
+                int bind = binding(e.getKeyCode());
+                if (bind >= 0)
+                    send(GameEngine.CMD_KEY_UP, bind >> 8, bind & 0xFF);
+            }
+        });
+        addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                // we will never see the key-up events
+                send(GameEngine.CMD_RELEASE_ALL, 1, 0);
+                send(GameEngine.CMD_RELEASE_ALL, 2, 0);
             }
         });
 
-        repaintTimer = new Timer(16, e -> repaint());
-        repaintTimer.start();
+        // passive mode paints when a published tick changes the view; the
+        // timer only runs while something animates on its own
+        repaintTimer = new Timer(16, e -> frameTick());
+        if (renderer != null)
+            renderer.start();
+        cpuLog = openCpuLog();
+    }
+
+    /** Player (high byte) and InputSampler key (low byte) for a key code, or -1. */
+    private static int binding(int code) {
+        switch (code) {
+            // Player 1
+            case KeyEvent.VK_A:
+                return 1 << 8 | InputSampler.LEFT;
+            case KeyEvent.VK_D:
+                return 1 << 8 | InputSampler.RIGHT;
+            case KeyEvent.VK_W:
+                return 1 << 8 | InputSampler.ROTATE_CW;
+            case KeyEvent.VK_S:
+                return 1 << 8 | InputSampler.SOFT_DROP;
+            case KeyEvent.VK_V:
+                return 1 << 8 | InputSampler.HARD_DROP;
+            case KeyEvent.VK_C:
+                return 1 << 8 | InputSampler.HOLD;
+            // Player 2
+            case KeyEvent.VK_LEFT:
+                return 2 << 8 | InputSampler.LEFT;
+            case KeyEvent.VK_RIGHT:
+                return 2 << 8 | InputSampler.RIGHT;
+            case KeyEvent.VK_UP:
+                return 2 << 8 | InputSampler.ROTATE_CW;
+            case KeyEvent.VK_DOWN:
+                return 2 << 8 | InputSampler.SOFT_DROP;
+            case KeyEvent.VK_PERIOD:
+                return 2 << 8 | InputSampler.HARD_DROP;
+            case KeyEvent.VK_COMMA:
+                return 2 << 8 | InputSampler.HOLD;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * With -Dtetris.net.peer=HOST:PORT, play online against that machine:
+     * -Dtetris.net.port (default 7777) is the local UDP port and
+     * -Dtetris.net.player (1 or 2) the side played here. Both machines need
+     * the same -Dtetris.net.seed, board and mode, and either keyboard
+     * layout controls the local player. Returns null for hot-seat play.
+     */
+    private static RollbackSession openSession(GameEngine engine) {
+        String peer = System.getProperty("tetris.net.peer");
+        if (peer == null)
+            return null;
+        try {
+            Transport t = UdpTransport.open(Integer.getInteger("tetris.net.port", 7777),
+                    UdpTransport.parseAddress(peer));
+            return new RollbackSession(engine, Integer.getInteger("tetris.net.player", 1), t,
+                    Integer.getInteger("tetris.net.delay", RollbackSession.DEFAULT_DELAY),
+                    RollbackSession.DEFAULT_MAX_ROLLBACK);
+        } catch (java.io.IOException | IllegalArgumentException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    /** With -Dtetris.spectate=PORT, stream the match to SpectatorClients. */
+    private static SpectatorServer openSpectators() {
+        Integer port = Integer.getInteger("tetris.spectate");
+        if (port == null)
+            return null;
+        try {
+            return SpectatorServer.open(port);
+        } catch (java.io.IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * With -Dtetris.cpulog, print the process's CPU time and the frames
+     * drawn once a minute, to compare an idle screen with one in play.
+     */
+    private Timer openCpuLog() {
+        if (!Boolean.getBoolean("tetris.cpulog"))
+            return null;
+        java.lang.management.OperatingSystemMXBean bean =
+                java.lang.management.ManagementFactory.getOperatingSystemMXBean();
+        if (!(bean instanceof com.sun.management.OperatingSystemMXBean))
+            return null;
+        com.sun.management.OperatingSystemMXBean os = (com.sun.management.OperatingSystemMXBean) bean;
+        long[] last = { os.getProcessCpuTime(), System.nanoTime(), 0 };
+        Timer t = new Timer(60_000, e -> {
+            long cpu = os.getProcessCpuTime(), now = System.nanoTime();
+            long frames = renderer != null ? renderer.getFrames() : paints;
+            double share = (cpu - last[0]) / (double) (now - last[1]);
+            System.out.printf("cpu %.2f s/min (%.1f%% of one core), %d frames%n",
+                    share * 60, share * 100, frames - last[2]);
+            last[0] = cpu;
+            last[1] = now;
+            last[2] = frames;
+        });
+        t.start();
+        return t;
+    }
+
+    /** Hand a command to the simulation thread; applied on its next tick. */
+    private void send(int type, int playerId, int arg) {
+        loop.submit(GameEngine.command(type, playerId, arg));
+    }
+
+    private void togglePause() {
+        if (session != null)
+            return;
+        isPaused = !isPaused;
+        loop.setPaused(isPaused);
+        pauseButton.setText(isPaused ? "Resume" : "Pause");
+        repaint();
     }
 
     private void toggleFullscreen() {
@@ -251,6 +392,83 @@ public class Tetris extends JPanel {
         repaint();
     }
 
+    private static Color shiftHSB(Color in, float hueShift, float satShift, float briShift) {
+        float[] hsb = Color.RGBtoHSB(in.getRed(), in.getGreen(), in.getBlue(), null);
+        float h = (hsb[0] + hueShift) % 1f;
+        if (h < 0)
+            h += 1f;
+        float s = Math.min(1f, Math.max(0f, hsb[1] + satShift));
+        float b = Math.min(1f, Math.max(0f, hsb[2] + briShift));
+        return Color.getHSBColor(h, s, b);
+    }
+
+    private List<Color> palette(GameSnapshot.PlayerView p) {
+        return p.getPlayerId() == 1 ? p1Colors : p2Colors;
+    }
+
+    /**
+     * Sounds and effects for engine events. These arrive on the simulation
+     * thread; anything touching Swing or the clips is passed to the EDT.
+     */
+    private class Effects implements GameListener {
+        @Override
+        public void onLock(int playerId, int lines, boolean hardDrop, List<Point> tiles) {
+            List<Point> landing = hardDrop ? new ArrayList<>(tiles) : null;
+            SwingUtilities.invokeLater(() -> {
+                stopAllMergeLoops();
+                playSound("sfx/fix_click.wav", false);
+                if (lines > 0)
+                    playSound("sfx/line_clear.wav", false);
+                if (landing != null)
+                    onSlam(landing);
+            });
+        }
+
+        @Override
+        public void onMove(int playerId) {
+            playSound("sfx/move_click.wav", false);
+        }
+
+        @Override
+        public void onRotate(int playerId) {
+            playSound("sfx/rotate.wav", false);
+        }
+
+        @Override
+        public void onHoldRefused(int playerId) {
+            playSound("sfx/error.wav", false);
+        }
+
+        @Override
+        public void onMerge(int winnerId, int mergeCount) {
+            SwingUtilities.invokeLater(() -> startMergeLoop(winnerId, mergeCount));
+        }
+
+        @Override
+        public void onDetonation(int x, int y) {
+            SwingUtilities.invokeLater(() -> {
+                // prevent the looped merge sound from continuing
+                stopAllMergeLoops();
+
+                // play one‑shot explosion
+                playSound("sfx/merge_explode.wav", false);
+                triggerExplosion(new Point(x, y));
+            });
+        }
+
+        @Override
+        public void onGameOver(int winnerId) {
+            SwingUtilities.invokeLater(() -> {
+                // no win music if the game was torn down first
+                if (!loop.isRunning())
+                    return;
+                stopAllMergeLoops();
+                playSound("sfx/win.wav", false);
+                restartButton.setVisible(session == null);
+            });
+        }
+    }
+
     public void onSlam(List<Point> landing) {
         // Play slam sound
         playSound("sfx/slam.wav", false);
@@ -270,155 +488,85 @@ public class Tetris extends JPanel {
         pauseButton.setText("Pause");
         restartButton.setVisible(false);
 
-        // clear board & players
-        board.clear();
-        p1.reset();
-        p2.reset();
-        initGame();
+        // the simulation thread has to be gone before we touch the engine
+        loop.stop();
+        loop.setPaused(false);
+        closeReplay();
 
-        // repaint & restart loop
-        repaint();
+        // clear board & players, new piece sequence
+        engine.reset(System.nanoTime());
+
+        // restart loop & repaint
         startGameLoop();
         requestFocusInWindow();
     }
 
-    private void initGame() {
-        board.clear();
-        p1.newPiece();
-        p2.newPiece();
-    }
-
     public void startGameLoop() {
-        runningGameLoop = true;
-        gameLoopThread = new Thread(() -> {
-            while (runningGameLoop && !p1.hasLost() && !p2.hasLost()) {
-                try {
-                    Thread.sleep(1000);
-                    if (!isPaused) {
-                        if (pendingDetonation != null) {
-                            // explode the merged piece player's block...
-                            Player explodedWinner = pendingDetonation.winner;
-                            pendingDetonation.explode();
-                            pendingDetonation = null;
-                            // ...but still let the other player drop normally
-                            if (explodedWinner.getPlayerId() == 1) {
-                                p2.drop();
-                            } else {
-                                p1.drop();
-                            }
-                        } else {
-                            // normal tick: both players drop
-                            p1.drop();
-                            p2.drop();
-                            if (wackyMode)
-                                checkMerge();
-                        }
-                        repaint();
-                    }
-                } catch (InterruptedException ignored) {
-                    // if we ever interrupt this thread, bail out
-                    break;
-                }
-            }
-            // Only play win?music if we actually ran to completion
-            if (runningGameLoop && (p1.hasLost() || p2.hasLost())) {
-                stopAllMergeLoops();
-                playSound("sfx/win.wav", false);
-                SwingUtilities.invokeLater(() -> restartButton.setVisible(true));
-            }
-        });
-        gameLoopThread.start();
-    }
-
-    // Completely stops the game
-    public void stopGame() {
-        // drop out of the loop
-        runningGameLoop = false;
-        // interrupt the thread in case it’s sleeping
-        if (gameLoopThread != null) {
-            gameLoopThread.interrupt();
-            gameLoopThread = null;
-        }
-        // stop the repaint timer and any merge?sound loops
-        repaintTimer.stop();
-        stopAllMergeLoops();
+        startReplay();
+        loop.start();
     }
 
     /**
-     * If any tile of p1 and p2 overlap, merge them.
-     * The other player takes control,
-     * and the loser immediately gets a fresh piece.
+     * With -Dtetris.replays=DIR, record each match to DIR; verify or study
+     * it later with ReplayReader. Call only while the loop is stopped.
      */
-    private void checkMerge() {
-        List<Point> t1 = p1.getCurrentTiles();
-        List<Point> t2 = p2.getCurrentTiles();
-
-        // exact overlap?
-        Set<Point> overlap = new HashSet<>(t1);
-        overlap.retainAll(t2);
-        if (!overlap.isEmpty()) {
-            doMerge(t1, t2, overlap.iterator().next());
+    private void startReplay() {
+        String dir = System.getProperty("tetris.replays");
+        // a rollback session re-simulates ticks, which a recorder would log twice
+        if (dir == null || session != null)
             return;
+        try {
+            String name = String.format("match-%tY%<tm%<td-%<tH%<tM%<tS-%016x.btr",
+                    new java.util.Date(), engine.getSeed());
+            replay = ReplayWriter.open(java.nio.file.Paths.get(dir, name));
+            engine.setRecorder(replay);
+        } catch (java.io.IOException ex) {
+            ex.printStackTrace();
         }
+    }
 
-        // 2) adjacency (manhattan)
-        for (Point a : t1) {
-            for (Point b : t2) {
-                if (Math.abs(a.x - b.x) + Math.abs(a.y - b.y) == 1) {
-                    doMerge(t1, t2, a);
-                    return;
-                }
-            }
+    private void closeReplay() {
+        if (replay == null)
+            return;
+        try {
+            replay.close();
+        } catch (java.io.IOException ex) {
+            ex.printStackTrace();
         }
+        replay = null;
     }
 
-    /**
-     * Perform the actual merge of two tile lists t1 and t2,
-     * union them, reassign control to the opposite side player,
-     * and give the loser a fresh piece.
-     */
-    private void doMerge(List<Point> t1, List<Point> t2, Point contact) {
-        // union
-        Set<Point> merged = new HashSet<>(t1);
-        merged.addAll(t2);
-
-        // who wins
-        int mid = numRows / 2;
-        boolean inBottom = contact.y >= mid;
-        Player winner = inBottom ? p2 : p1;
-        Player loser = (winner == p1) ? p2 : p1;
-
-        // build the new piece (tiles + pivot)
-        Tetramino m = new Tetramino();
-        m.clearTiles();
-        merged.forEach(pt -> m.addTile(new Point(pt)));
-        m.setPivot(computePivot(merged));
-
-        int old1 = p1.getCurrentPiece().getMergeCount();
-        int old2 = p2.getCurrentPiece().getMergeCount();
-        int newCount = Math.max(old1, old2) + 1;
-
-        if (newCount >= MAX_MERGES) {
-            // hand off the final merged piece
-            m.setMergeCount(newCount);
-            winner.setCurrentPiece(m);
-            loser.newPiece();
-
-            // schedule a detonation for the next tick
-            pendingDetonation = new PendingDetonation(contact, winner);
-            return;
-        } else {
-            // normal hand‑off
-            m.setMergeCount(newCount); // set PROPAGATED count
-            winner.setCurrentPiece(m);
-            loser.newPiece();
-            startMergeLoop(winner.getPlayerId(), newCount);
+    // Completely stops the game
+    public void stopGame() {
+        // stop the simulation thread and wait for it to exit
+        loop.stop();
+        closeReplay();
+        if (session != null) {
+            try {
+                session.close();
+            } catch (java.io.IOException ex) {
+                ex.printStackTrace();
+            }
         }
+        if (spectators != null)
+            spectators.close();
+        stopped = true;
+        if (cpuLog != null)
+            cpuLog.stop();
+        // stop the repaint timer and any merge?sound loops
+        repaintTimer.stop();
+        if (renderer != null)
+            renderer.stop();
+        stopAllMergeLoops();
     }
 
     private void triggerExplosion(Point contact) {
         // record explosion in tilespace
-        explosions.add(new Explosion(contact.x, contact.y));
+        synchronized (explosions) {
+            explosions.add(new Explosion(contact.x, contact.y));
+        }
+        if (renderer == null)
+            repaintTimer.start();   // until the rings fade, see frameTick
         // flash board
         flash = true;
         repaint();
@@ -439,33 +587,6 @@ public class Tetris extends JPanel {
         }
     }
 
-    private class PendingDetonation {
-        final Point contact;
-        final Player winner;
-
-        PendingDetonation(Point contact, Player winner) {
-            this.contact = contact;
-            this.winner = winner;
-        }
-
-        void explode() {
-            // prevent the looped merge sound from continuing
-            stopAllMergeLoops();
-
-            // play one‑shot explosion
-            playSound("sfx/merge_explode.wav", false);
-
-            // remove the tiles
-            board.getCell(contact.x, contact.y).setState(Cell.State.EMPTY);
-            triggerExplosion(contact);
-
-            // penalty & fresh piece
-            winner.addScore(-DETONATION_PENALTY);
-            winner.newPiece();
-        }
-
-    }
-
     public void playSound(String resourcePath, boolean loop) {
         new Thread(() -> {
             try {
@@ -534,7 +655,7 @@ public class Tetris extends JPanel {
      * at screen coords (x,y). If flipVert is true, draw the
      * next list downward (for the upside‑down player).
      */
-    private void drawHoldAndNext(Graphics2D g, Player p, int x, int y, boolean flipVert) {
+    private void drawHoldAndNext(Graphics2D g, GameSnapshot.PlayerView p, int x, int y, boolean flipVert) {
         int holdPs = previewSize; // size of the HOLD box
         int inset = holdPs / 10; // 10% inset for a slightly shrunken preview
 
@@ -561,13 +682,11 @@ public class Tetris extends JPanel {
         }
 
         // draw held piece
-        Tetramino held = p.getHoldPiece();
-        if (held != null) {
+        if (p.getHoldShape() >= 0) {
             Tetramino ph = new Tetramino();
-            ph.generateNewPiece(held.getShapeID(), new Point(0, 0));
-            ph.setMergeCount(held.getMergeCount());
+            ph.generateNewPiece(p.getHoldShape(), new Point(0, 0));
 
-            List<Color> base = p.getTetraminoColors();
+            List<Color> base = palette(p);
             List<Color> pal = p.hasHoldUsed() ? toGrayscale(base) : base;
 
             int ss = holdPs - 2 * inset;
@@ -586,8 +705,7 @@ public class Tetris extends JPanel {
         int nextPs = holdPs / 2;
         int gap = 4;
         int padV = 8; // extra vertical padding
-        List<Integer> next = p.peekNext(5);
-        int count = next.size();
+        int count = p.nextCount();
 
         int boxW = nextPs;
         int boxH = count * nextPs + (count - 1) * gap + padV * 2;
@@ -616,7 +734,7 @@ public class Tetris extends JPanel {
 
         for (int i = 0; i < count; i++) {
             Tetramino t = new Tetramino();
-            t.generateNewPiece(next.get(i), new Point(0, 0));
+            t.generateNewPiece(p.next(i), 0, 0);
 
             int sliceY = flipVert
                     ? boxY + padV + i * (nextPs + gap)
@@ -625,7 +743,7 @@ public class Tetris extends JPanel {
             int extraX = (t.getShapeID() == 1 ? 0 : fudge);
 
             drawTetraminoPreview(
-                    g, t, p.getTetraminoColors(),
+                    g, t, palette(p),
                     boxX + padH + extraX,
                     sliceY + padH,
                     nextPs - 2 * padH);
@@ -690,119 +808,65 @@ public class Tetris extends JPanel {
 
     @Override
     protected void paintComponent(Graphics g) {
-        // Paint full panel gradient background
-        Graphics2D g0 = (Graphics2D) g;
+        if (renderer != null) {
+            super.paintComponent(g);    // the canvas draws the match
+            return;
+        }
+        // the snapshot frameTick last took, clipped to what it found changed
+        paints++;
+        drawFrame((Graphics2D) g, getWidth(), getHeight());
+    }
+
+    /** Active mode: every refresh draws the newest tick in full. */
+    private void activeFrame(Graphics2D g, int width, int height) {
+        snap = loop.snapshot();
+        drawFrame(g, width, height);
+    }
+
+    /**
+     * Draw the current snapshot onto a width x height surface: on the EDT
+     * from paintComponent, or on the render thread in active mode. Parts
+     * outside the clip are skipped.
+     */
+    private void drawFrame(Graphics2D g0, int width, int height) {
+        // one consistent tick for the whole frame
+        GameSnapshot snap = this.snap;
+        GameSnapshot.PlayerView p1 = snap.getPlayer(1), p2 = snap.getPlayer(2);
+
         g0.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                 RenderingHints.VALUE_ANTIALIAS_ON);
-        GradientPaint fullGrad = new GradientPaint(
-                0, 0, Color.DARK_GRAY,
-                0, getHeight(), Color.BLACK);
-        g0.setPaint(fullGrad);
-        g0.fillRect(0, 0, getWidth(), getHeight());
 
-        // Figure out our natural unscaled size
+        // background, board backdrop, grid and center line in one blit
+        BufferedImage backdrop = backdrop(g0, flash, width, height);
+        g0.drawImage(backdrop, 0, 0, width, height, null);
+
         Dimension natural = getPreferredSize();
         int natW = natural.width, natH = natural.height;
 
-        // Get actual component size
-        int compW = getWidth(), compH = getHeight();
-
-        // Compute uniform scale for fullscreen
-        double scale = 1.0;
-        if (isFullscreen) {
-            scale = Math.min(compW / (double) natW,
-                    compH / (double) natH);
-        }
-
-        // Compute translation so scaled content is centered
-        double tx = (compW / scale - natW) / 2.0;
-        double ty = (compH / scale - natH) / 2.0;
-
         // Apply scale + translate on a fresh Graphics2D
         Graphics2D g2 = (Graphics2D) g0.create();
-        g2.scale(scale, scale);
-        g2.translate(tx, ty);
+        g2.transform(boardTransform(width, height));
 
-        // Draw the board & grid in natural coords
+        // Draw the board in natural coords
         int offsetX = (natW - boardWidth) / 2;
         int offsetY = (natH - boardHeight) / 2;
 
-        // Board backdrop
-        g2.setColor(Color.BLACK);
-        g2.fillRect(offsetX, offsetY, boardWidth, boardHeight);
-        g2.setColor(Color.GRAY);
-        g2.setStroke(new BasicStroke(2));
-        g2.drawRect(offsetX, offsetY, boardWidth, boardHeight);
-
-        // Grid lines
-        g2.setColor(new Color(255, 255, 255, 30));
-        g2.setStroke(new BasicStroke(1));
-        for (int cx = 1; cx < numCols; cx++) {
-            int x = offsetX + cx * tileSize;
-            g2.drawLine(x, offsetY, x, offsetY + boardHeight);
-        }
-        for (int cy = 1; cy < numRows; cy++) {
-            int y = offsetY + cy * tileSize;
-            g2.drawLine(offsetX, y, offsetX + boardWidth, y);
-        }
-
-        // Flash effect
-        if (flash) {
-            g2.setColor(new Color(15, 15, 15));
-            g2.fillRect(offsetX, offsetY, boardWidth, boardHeight);
-        }
-
-        // Fixed cells
-        for (int x = 0; x < numCols; x++) {
-            for (int y = 0; y < numRows; y++) {
-                Cell c = board.getCell(x, y);
-                if (c.getState() != Cell.State.FIXED)
-                    continue;
+        Rectangle clip = g2.getClipBounds();
+        if (clip == null)
+            clip = new Rectangle(0, 0, natW, natH);
 
-                Color col;
-                int m = c.getMergeCount();
-                if (m == 0) {
-                    col = (c.getOwnerId() == 1)
-                            ? p1.getTetraminoColors().get(c.getShapeId())
-                            : p2.getTetraminoColors().get(c.getShapeId());
-                } else if (m <= 3) {
-                    switch (m) {
-                        case 1:
-                            col = new Color(0xAA, 0x00, 0xAA);
-                            break;
-                        case 2:
-                            col = Color.YELLOW;
-                            break;
-                        default:
-                            col = Color.RED;
-                            break;
-                    }
-                } else {
-                    col = Color.RED;
-                }
-                g2.setColor(col);
-                g2.fillRect(
-                        offsetX + x * tileSize,
-                        offsetY + y * tileSize,
-                        tileSize - 1,
-                        tileSize - 1);
-            }
+        // Fixed cells, kept drawn over the backdrop between frames
+        TileAtlas atlas = atlas(g2);
+        if (clip.intersects(offsetX, offsetY, boardWidth, boardHeight)) {
+            AffineTransform dev = g0.getTransform();
+            board.draw(g2, snap, backdrop, atlas, dev.getTranslateX(), dev.getTranslateY(),
+                    offsetX, offsetY, tileSize);
         }
 
-        // Center dashed line
-        Stroke old = g2.getStroke();
-        g2.setStroke(new BasicStroke(
-                3, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER,
-                10, new float[] { 8, 8 }, 0));
-        g2.setColor(Color.LIGHT_GRAY);
-        int lineY = offsetY + boardHeight / 2;
-        g2.drawLine(offsetX, lineY, offsetX + boardWidth, lineY);
-        g2.setStroke(old);
-
         // Scores
         int boxW = 100;
-        int boxH = 36;
-        int pad = 12;
+        int boxH = SCORE_BOX_H;
+        int pad = SCORE_PAD;
         int minGap = tileSize; // require at least one tile width between boxes
 
         int boxY = offsetY - boxH - pad;
@@ -819,97 +883,73 @@ public class Tetris extends JPanel {
             p2BoxX = center + minGap / 2;
         }
 
-        g2.setColor(new Color(0, 0, 0, 160));
-        g2.fillRoundRect(p1BoxX, boxY, boxW, boxH, 8, 8);
-        g2.fillRoundRect(p2BoxX, boxY, boxW, boxH, 8, 8);
+        if (clip.intersects(0, boxY, natW, boxH)) {
+            g2.setColor(new Color(0, 0, 0, 160));
+            g2.fillRoundRect(p1BoxX, boxY, boxW, boxH, 8, 8);
+            g2.fillRoundRect(p2BoxX, boxY, boxW, boxH, 8, 8);
 
-        g2.setColor(Color.WHITE);
-        g2.setFont(new Font("Arial", Font.BOLD, 18));
-        g2.drawString("P1: " + p1.getScore(), p1BoxX + 10, boxY + 24);
-        g2.drawString("P2: " + p2.getScore(), p2BoxX + 10, boxY + 24);
+            g2.setColor(Color.WHITE);
+            g2.setFont(new Font("Arial", Font.BOLD, 18));
+            g2.drawString("P1: " + p1.getScore(), p1BoxX + 10, boxY + 24);
+            g2.drawString("P2: " + p2.getScore(), p2BoxX + 10, boxY + 24);
+        }
         // Explosions
         long now = System.currentTimeMillis();
-        Iterator<Explosion> it = explosions.iterator();
-        while (it.hasNext()) {
-            Explosion ex = it.next();
-            float t = (now - ex.start) / 500f;
-            if (t >= 1f) {
-                it.remove();
-                continue;
+        synchronized (explosions) {
+            Iterator<Explosion> it = explosions.iterator();
+            while (it.hasNext()) {
+                Explosion ex = it.next();
+                float t = (now - ex.start) / 500f;
+                if (t >= 1f) {
+                    it.remove();
+                    continue;
+                }
+                int r = (int) (t * boardWidth);
+                int alpha = (int) ((1 - t) * 255);
+                int cx = offsetX + ex.tileX * tileSize + tileSize / 2;
+                int cy = offsetY + ex.tileY * tileSize + tileSize / 2;
+                g2.setColor(new Color(255, 200, 0, alpha));
+                g2.setStroke(new BasicStroke((1 - t) * 8));
+                g2.drawOval(cx - r, cy - r, r * 2, r * 2);
             }
-            int r = (int) (t * boardWidth);
-            int alpha = (int) ((1 - t) * 255);
-            int cx = offsetX + ex.tileX * tileSize + tileSize / 2;
-            int cy = offsetY + ex.tileY * tileSize + tileSize / 2;
-            g2.setColor(new Color(255, 200, 0, alpha));
-            g2.setStroke(new BasicStroke((1 - t) * 8));
-            g2.drawOval(cx - r, cy - r, r * 2, r * 2);
         }
 
         // Hold & Next previews
         int previewSize = 4 * tileSize;
-        {
+        if (clip.intersects(0, 0, offsetX, natH)) {
             int p1X = offsetX - previewSize - 20;
             int p1Y = offsetY;
             drawHoldAndNext(g2, p1, p1X, p1Y, true);
         }
-        {
+        if (clip.intersects(offsetX + boardWidth, 0, natW, natH)) {
             int p2X = offsetX + boardWidth + 20;
             int p2Y = offsetY + boardHeight - previewSize;
             drawHoldAndNext(g2, p2, p2X, p2Y, false);
         }
 
-        // Falling pieces & ghosts — compute each player’s color once, then draw both
-        // ghost+piece in that color
-        AffineTransform save = g2.getTransform();
-        g2.translate(offsetX, offsetY);
-
-        // Player 1
-        Color c1 = p1.getCurrentColor();
-        p1.drawGhost(g2, c1);
-        p1.drawPiece(g2, c1);
-
-        // Player 2
-        Color c2 = p2.getCurrentColor();
-        p2.drawGhost(g2, c2);
-        p2.drawPiece(g2, c2);
-
-        // draw each falling piece with conditional alpha
-        float farAlpha = 0.5f, nearAlpha = 1.0f;
+        // Falling pieces & ghosts. Ghosts go first so neither piece is
+        // hidden under the other's outline
+        int maxMerges = engine.getRules().getMaxMerges();
+        int t1 = currentTint(p1, maxMerges), t2 = currentTint(p2, maxMerges);
+        atlas.begin(g2);
+        for (int i = 0; i < p1.tileCount(); i++)
+            atlas.ghost(g2, t1, offsetX + p1.ghostX(i) * tileSize, offsetY + p1.ghostY(i) * tileSize);
+        for (int i = 0; i < p2.tileCount(); i++)
+            atlas.ghost(g2, t2, offsetX + p2.ghostX(i) * tileSize, offsetY + p2.ghostY(i) * tileSize);
+
+        // a piece still in the other player's half is drawn see-through
         int midRow = numRows / 2;
-
-        List<Point> tiles1 = p1.getCurrentTiles();
-        Color col1 = p1.getTetraminoColors()
-                .get(p1.getCurrentPiece().getShapeID());
-        for (Point pt : tiles1) {
-            float a = (pt.y < midRow) ? farAlpha : nearAlpha;
-            g2.setComposite(AlphaComposite.getInstance(
-                    AlphaComposite.SRC_OVER, a));
-            g2.setColor(col1);
-            g2.fillRect(
-                    pt.x * tileSize,
-                    pt.y * tileSize,
-                    tileSize - 1, tileSize - 1);
-        }
-
-        List<Point> tiles2 = p2.getCurrentTiles();
-        Color col2 = p2.getTetraminoColors()
-                .get(p2.getCurrentPiece().getShapeID());
-        for (Point pt : tiles2) {
-            float a = (pt.y > midRow) ? farAlpha : nearAlpha;
-            g2.setComposite(AlphaComposite.getInstance(
-                    AlphaComposite.SRC_OVER, a));
-            g2.setColor(col2);
-            g2.fillRect(
-                    pt.x * tileSize,
-                    pt.y * tileSize,
-                    tileSize - 1, tileSize - 1);
-        }
-
-        // restore full opacity & original transform
-        g2.setComposite(AlphaComposite.getInstance(
-                AlphaComposite.SRC_OVER, 1.0f));
-        g2.setTransform(save);
+        for (int i = 0; i < p1.tileCount(); i++) {
+            int ty1 = p1.tileY(i);
+            atlas.falling(g2, 1, p1.getShapeId(), t1, ty1 < midRow,
+                    offsetX + p1.tileX(i) * tileSize, offsetY + ty1 * tileSize);
+        }
+        for (int i = 0; i < p2.tileCount(); i++) {
+            int ty2 = p2.tileY(i);
+            atlas.falling(g2, 2, p2.getShapeId(), t2, ty2 > midRow,
+                    offsetX + p2.tileX(i) * tileSize, offsetY + ty2 * tileSize);
+        }
+        atlas.end(g2);
 
         // Game over message
         if (p1.hasLost() || p2.hasLost()) {
@@ -922,6 +962,14 @@ public class Tetris extends JPanel {
             g2.drawString(msg, mx, my);
         }
 
+        if (session != null && session.isWaiting() && !p1.hasLost() && !p2.hasLost()) {
+            String waitMsg = "Waiting for opponent...";
+            g2.setFont(new Font("Arial", Font.BOLD, 28));
+            FontMetrics wfm = g2.getFontMetrics();
+            g2.setColor(new Color(255, 255, 255, 200));
+            g2.drawString(waitMsg, (natW - wfm.stringWidth(waitMsg)) / 2, natH / 2);
+        }
+
         if (isPaused && !p1.hasLost() && !p2.hasLost()) {
             String pauseMsg = "Paused";
             g2.setFont(new Font("Arial", Font.BOLD, 48));
@@ -937,81 +985,324 @@ public class Tetris extends JPanel {
         g2.dispose();
     }
 
-    /** Compute center of mass pivot for a merged shape. */
-    private Point computePivot(Set<Point> pts) {
-        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
-        int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
-        for (Point p : pts) {
-            minX = Math.min(minX, p.x);
-            maxX = Math.max(maxX, p.x);
-            minY = Math.min(minY, p.y);
-            maxY = Math.max(maxY, p.y);
+    // ─── Dirty regions ────────────────────────────────────────
+
+    /** Simulation thread, after each publish: wake the EDT only if the view changed. */
+    private void viewPublished() {
+        // loop is still null for the publish its own constructor makes
+        if (loop == null)
+            return;
+        long stamp = loop.getDrawStamp();
+        if (stamp != requestedStamp) {
+            requestedStamp = stamp;
+            requestFrame();
         }
-        // center
-        return new Point((minX + maxX) / 2, (minY + maxY) / 2);
     }
 
-    // DAS Handler
-    private class DASHandler {
-        private final int dx;
-        private final Player player;
-        private Timer dasTimer, arrTimer;
-        private boolean held = false; // <- track actual press state
+    /** Run frameTick on the EDT soon, once however many ticks ask (any thread). */
+    private void requestFrame() {
+        if (framePending.compareAndSet(false, true))
+            SwingUtilities.invokeLater(() -> {
+                framePending.set(false);
+                frameTick();
+            });
+    }
 
-        DASHandler(int dx, Player player) {
-            this.dx = dx;
-            this.player = player;
+    /**
+     * Take the newest snapshot and paint only what differs from the one on
+     * screen: changed rows, the old and new area of each falling piece and
+     * its ghost, and the score or preview strips. Explosions, overlays and
+     * flashes still repaint the whole panel. Passive mode, EDT only.
+     */
+    private void frameTick() {
+        if (stopped) {
+            repaintTimer.stop();
+            return;
         }
-
-        void keyDown() {
-            if (p1.hasLost() || p2.hasLost())
-                return;
-            // ignore repeats until a keyUp()
-            if (held)
-                return;
-            held = true;
-
-            // one immediate move
-            player.move(dx);
-            Tetris.this.repaint();
-
-            // start DAS delay
-            dasTimer = new Timer(200, ev -> {
-                // after DAS delay, start ARR if still held
-                if (held)
-                    startARR();
-                dasTimer = null;
-            });
-            dasTimer.setRepeats(false);
-            dasTimer.start();
+        GameSnapshot s = loop.snapshot();
+        snap = s;
+        GameSnapshot.PlayerView p1 = s.getPlayer(1), p2 = s.getPlayer(2);
+        boolean over = p1.hasLost() || p2.hasLost();
+        int overlay = (flash ? 1 : 0) | (over ? 2 : 0)
+                | (session != null && session.isWaiting() ? 4 : 0) | (isPaused ? 8 : 0);
+        boolean exploding;
+        synchronized (explosions) {
+            exploding = !explosions.isEmpty();
         }
+        boolean full = exploding || overlay != shownOverlay;
+        shownOverlay = overlay;
+
+        // between published changes, only animations need frames: explosion
+        // rings, a blinking piece, and an online match's waiting message
+        int maxMerges = engine.getRules().getMaxMerges();
+        boolean blinking = !isPaused && (p1.getMergeCount() >= maxMerges
+                || p2.getMergeCount() >= maxMerges);
+        if (exploding || blinking || session != null)
+            repaintTimer.start();
+        else
+            repaintTimer.stop();
 
-        void keyUp() {
-            // clear state & timers
-            held = false;
-            if (dasTimer != null) {
-                dasTimer.stop();
-                dasTimer = null;
+        Dimension natural = getPreferredSize();
+        int offsetX = (natural.width - boardWidth) / 2;
+        int offsetY = (natural.height - boardHeight) / 2;
+        List<Rectangle> dirty = new ArrayList<>();
+
+        // rows that changed since they were shown, as one band
+        int top = -1, bottom = -1;
+        for (int y = 0; y < numRows; y++) {
+            long v = s.getRowVersion(y);
+            if (shownRows[y] != v) {
+                shownRows[y] = v;
+                if (top < 0)
+                    top = y;
+                bottom = y;
+            }
+        }
+        if (top >= 0)
+            dirty.add(new Rectangle(offsetX, offsetY + top * tileSize,
+                    boardWidth, (bottom - top + 1) * tileSize));
+
+        for (int id = 1; id <= 2; id++) {
+            GameSnapshot.PlayerView p = s.getPlayer(id);
+            long key = pieceKey(p, maxMerges);
+            if (key != shownPiece[id]) {
+                shownPiece[id] = key;
+                if (shownPieceArea[id] != null)
+                    dirty.add(shownPieceArea[id]);
+                shownPieceArea[id] = pieceArea(p, offsetX, offsetY);
+                if (shownPieceArea[id] != null)
+                    dirty.add(shownPieceArea[id]);
             }
-            if (arrTimer != null) {
-                arrTimer.stop();
-                arrTimer = null;
+            long queue = queueKey(p);
+            if (queue != shownQueue[id]) {
+                shownQueue[id] = queue;
+                dirty.add(id == 1
+                        ? new Rectangle(0, 0, offsetX, natural.height)
+                        : new Rectangle(offsetX + boardWidth, 0, natural.width - offsetX - boardWidth,
+                                natural.height));
             }
         }
 
-        private void startARR() {
-            // auto repeat at fixed rate while held
-            arrTimer = new Timer(50, ev -> {
-                if (held) {
-                    player.move(dx);
-                    Tetris.this.repaint();
-                } else {
-                    arrTimer.stop();
-                    arrTimer = null;
+        long scores = p1.getScore() * 31 + p2.getScore();
+        if (scores != shownScores) {
+            shownScores = scores;
+            dirty.add(new Rectangle(0, offsetY - SCORE_BOX_H - SCORE_PAD, natural.width, SCORE_BOX_H));
+        }
+
+        if (full) {
+            repaint();
+            return;
+        }
+        // painted one by one: RepaintManager would merge them into a single
+        // rectangle spanning both players' pieces
+        AffineTransform at = boardTransform(getWidth(), getHeight());
+        for (Rectangle r : merge(dirty)) {
+            // ghost outlines reach a pixel past their tiles, rounding one more
+            r.grow(1, 1);
+            Rectangle d = at.createTransformedShape(r).getBounds();
+            d.grow(1, 1);
+            paintImmediately(d);
+        }
+    }
+
+    /** Changes whenever a piece's tiles, ghost or colour would be drawn differently. */
+    private long pieceKey(GameSnapshot.PlayerView p, int maxMerges) {
+        long h = p.getShapeId() * 31L + currentTint(p, maxMerges);
+        for (int i = 0; i < p.tileCount(); i++) {
+            h = h * 31 + p.tileX(i);
+            h = h * 31 + p.tileY(i);
+            h = h * 31 + p.ghostX(i);
+            h = h * 31 + p.ghostY(i);
+        }
+        return h * 31 + p.tileCount();
+    }
+
+    /** Natural-space bounds of a piece and its ghost, or null if there is none. */
+    private Rectangle pieceArea(GameSnapshot.PlayerView p, int offsetX, int offsetY) {
+        int n = p.tileCount();
+        if (n == 0)
+            return null;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, Math.min(p.tileX(i), p.ghostX(i)));
+            maxX = Math.max(maxX, Math.max(p.tileX(i), p.ghostX(i)));
+            minY = Math.min(minY, Math.min(p.tileY(i), p.ghostY(i)));
+            maxY = Math.max(maxY, Math.max(p.tileY(i), p.ghostY(i)));
+        }
+        return new Rectangle(offsetX + minX * tileSize, offsetY + minY * tileSize,
+                (maxX - minX + 1) * tileSize, (maxY - minY + 1) * tileSize);
+    }
+
+    private static long queueKey(GameSnapshot.PlayerView p) {
+        long h = p.getHoldShape() * 2 + (p.hasHoldUsed() ? 1 : 0);
+        for (int i = 0; i < p.nextCount(); i++)
+            h = h * 8 + p.next(i) + 1;
+        return h * 31 + p.nextCount();
+    }
+
+    /** Join overlapping rectangles, so no area is painted twice. */
+    private static List<Rectangle> merge(List<Rectangle> rects) {
+        List<Rectangle> out = new ArrayList<>();
+        for (Rectangle r : rects) {
+            Rectangle m = new Rectangle(r);
+            for (Iterator<Rectangle> it = out.iterator(); it.hasNext();) {
+                Rectangle o = it.next();
+                if (o.intersects(m)) {
+                    m.add(o);
+                    it.remove();
+                    it = out.iterator();    // the grown one may now reach others
                 }
-            });
-            arrTimer.setRepeats(true);
-            arrTimer.start();
+            }
+            out.add(m);
+        }
+        return out;
+    }
+
+    /**
+     * Scale (in fullscreen) and centering that maps the natural layout of
+     * {@link #getPreferredSize()} onto a compW x compH surface.
+     */
+    private AffineTransform boardTransform(int compW, int compH) {
+        Dimension natural = getPreferredSize();
+        int natW = natural.width, natH = natural.height;
+
+        // Compute uniform scale for fullscreen
+        double scale = 1.0;
+        if (isFullscreen) {
+            scale = Math.min(compW / (double) natW,
+                    compH / (double) natH);
+        }
+
+        // Compute translation so scaled content is centered
+        double tx = (compW / scale - natW) / 2.0;
+        double ty = (compH / scale - natH) / 2.0;
+        AffineTransform at = AffineTransform.getScaleInstance(scale, scale);
+        at.translate(tx, ty);
+        return at;
+    }
+
+    /**
+     * The static layers for the current surface size, fullscreen state and
+     * device scale (drawing thread only), with the board dimmed if flash. Rebuilt only when one of
+     * those changes; everything else is drawn over it each frame.
+     */
+    private BufferedImage backdrop(Graphics2D g, boolean flash, int width, int height) {
+        AffineTransform dev = g.getTransform();
+        double sx = dev.getScaleX(), sy = dev.getScaleY();
+        int w = Math.max(1, width), h = Math.max(1, height);
+        if (w != backdropW || h != backdropH || sx != backdropSX || sy != backdropSY
+                || isFullscreen != backdropFullscreen) {
+            backdrop = flashBackdrop = null;
+            backdropW = w;
+            backdropH = h;
+            backdropSX = sx;
+            backdropSY = sy;
+            backdropFullscreen = isFullscreen;
+        }
+        if (flash) {
+            if (flashBackdrop == null)
+                flashBackdrop = renderBackdrop(w, h, sx, sy, true);
+            return flashBackdrop;
+        }
+        if (backdrop == null)
+            backdrop = renderBackdrop(w, h, sx, sy, false);
+        return backdrop;
+    }
+
+    private BufferedImage renderBackdrop(int w, int h, double sx, double sy, boolean flash) {
+        // device pixels, so HiDPI screens get a sharp grid
+        int iw = (int) Math.ceil(w * sx), ih = (int) Math.ceil(h * sy);
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        BufferedImage img = gc != null
+                ? gc.createCompatibleImage(iw, ih, Transparency.OPAQUE)
+                : new BufferedImage(iw, ih, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.scale(sx, sy);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_ON);
+
+        // Paint full panel gradient background
+        g.setPaint(new GradientPaint(
+                0, 0, Color.DARK_GRAY,
+                0, h, Color.BLACK));
+        g.fillRect(0, 0, w, h);
+
+        g.transform(boardTransform(w, h));
+        Dimension natural = getPreferredSize();
+        int offsetX = (natural.width - boardWidth) / 2;
+        int offsetY = (natural.height - boardHeight) / 2;
+
+        // Board backdrop
+        g.setColor(Color.BLACK);
+        g.fillRect(offsetX, offsetY, boardWidth, boardHeight);
+        g.setColor(Color.GRAY);
+        g.setStroke(BORDER_STROKE);
+        g.drawRect(offsetX, offsetY, boardWidth, boardHeight);
+
+        // Grid lines
+        g.setColor(GRID_COLOR);
+        g.setStroke(GRID_STROKE);
+        for (int cx = 1; cx < numCols; cx++) {
+            int x = offsetX + cx * tileSize;
+            g.drawLine(x, offsetY, x, offsetY + boardHeight);
+        }
+        for (int cy = 1; cy < numRows; cy++) {
+            int y = offsetY + cy * tileSize;
+            g.drawLine(offsetX, y, offsetX + boardWidth, y);
         }
+
+        // Flash effect
+        if (flash) {
+            g.setColor(FLASH_COLOR);
+            g.fillRect(offsetX, offsetY, boardWidth, boardHeight);
+        }
+
+        // Center dashed line; fixed cells never cover it while the match
+        // runs, since locking on the middle row ends it
+        g.setStroke(CENTER_STROKE);
+        g.setColor(Color.LIGHT_GRAY);
+        int lineY = offsetY + boardHeight / 2;
+        g.drawLine(offsetX, lineY, offsetX + boardWidth, lineY);
+        g.dispose();
+        return img;
+    }
+
+    /** Atlas tint of a fixed cell: its owner's shape colour, or its merge colour. */
+    static int cellTint(short c) {
+        switch (Cell.mergeOf(c)) {
+            case 0:
+                return TileAtlas.paletteTint(Cell.ownerOf(c), Cell.shapeOf(c));
+            case 1:
+                return TileAtlas.PURPLE;
+            case 2:
+                return TileAtlas.YELLOW;
+            default:
+                return TileAtlas.RED;
+        }
+    }
+
+    /**
+     * Atlas tint of a falling piece; one at the rules' merge limit
+     * (maxMerges) is about to detonate and blinks.
+     */
+    private int currentTint(GameSnapshot.PlayerView p, int maxMerges) {
+        int m = p.getMergeCount();
+        if (m > 0 && m >= maxMerges) {
+            boolean on = ((System.currentTimeMillis()/100)%2)==0;
+            return on ? TileAtlas.RED : TileAtlas.WHITE;
+        }
+        if (m == 1)   return TileAtlas.PURPLE;
+        if (m == 2)   return TileAtlas.YELLOW;
+        if (m >= 3)   return TileAtlas.RED;
+        return TileAtlas.paletteTint(p.getPlayerId(), p.getShapeId());
+    }
+
+    /** The tile atlas for g's current scale, redrawn when the scale changes. */
+    private TileAtlas atlas(Graphics2D g) {
+        double s = g.getTransform().getScaleX();
+        if (atlas == null || atlas.getScale() != s)
+            atlas = new TileAtlas(tileSize, s, p1Colors, p2Colors, getGraphicsConfiguration());
+        return atlas;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,114 @@
+package src;
+// TickScheduler.java
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed-timestep clock for the simulation. Real time from
+ * {@link System#nanoTime()} is added to an accumulator and spent in whole
+ * ticks, so the tick rate never drifts with how long a tick or a repaint
+ * took. If the host stalls, at most {@code maxCatchUp} ticks run back to
+ * back and the rest of the backlog is dropped instead of fast-forwarding.
+ * Pausing freezes the accumulator, so resuming keeps the tick phase.
+ */
+public class TickScheduler {
+    private final int ticksPerSecond;
+    private final long tickNanos;
+    private final int maxCatchUp;
+
+    private long last;          // nanoTime of the previous advance
+    private long accumulator;   // unspent real time
+    private boolean paused;
+    private long ticks;         // ticks run since reset
+    private long dropped;       // ticks skipped by the catch-up limit
+    private long tickTime;      // nanoTime the running tick was due at
+
+    public TickScheduler(int ticksPerSecond, int maxCatchUp) {
+        if (ticksPerSecond <= 0 || maxCatchUp <= 0)
+            throw new IllegalArgumentException("tick rate and catch-up limit must be positive");
+        this.ticksPerSecond = ticksPerSecond;
+        this.tickNanos = 1_000_000_000L / ticksPerSecond;
+        this.maxCatchUp = maxCatchUp;
+        reset(System.nanoTime());
+    }
+
+    /** Start counting from now with an empty accumulator. */
+    public void reset(long now) {
+        last = now;
+        tickTime = now;
+        accumulator = 0;
+        ticks = 0;
+        dropped = 0;
+    }
+
+    public void setPaused(boolean paused, long now) {
+        if (this.paused == paused)
+            return;
+        if (!paused)
+            last = now;         // time spent paused does not count
+        this.paused = paused;
+    }
+
+    /**
+     * Run every tick that has come due by {@code now} (up to the catch-up
+     * limit) and return how many ran.
+     */
+    public int advance(long now, Runnable tick) {
+        if (paused) {
+            last = now;
+            return 0;
+        }
+        accumulator += now - last;
+        last = now;
+        int ran = 0;
+        while (accumulator >= tickNanos) {
+            if (ran == maxCatchUp) {
+                long behind = accumulator / tickNanos;
+                dropped += behind;
+                accumulator -= behind * tickNanos;
+                break;
+            }
+            accumulator -= tickNanos;
+            tickTime = now - accumulator;
+            tick.run();
+            ran++;
+            ticks++;
+        }
+        return ran;
+    }
+
+    /** Park the calling thread until the next tick is due (or it is unparked). */
+    public void awaitNextTick() {
+        long wait = paused ? tickNanos : tickNanos - accumulator - (System.nanoTime() - last);
+        if (wait > 0)
+            LockSupport.parkNanos(wait);
+    }
+
+    public int getTicksPerSecond() {
+        return ticksPerSecond;
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * The nanoTime at which the tick now running (or the last one run) fell
+     * due; input stamped at or before it belongs to that tick.
+     */
+    public long getTickTime() {
+        return tickTime;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public long getDroppedTicks() {
+        return dropped;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+}
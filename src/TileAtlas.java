@@ -0,0 +1,173 @@
+package src;
+// TileAtlas.java
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * Every board tile the game draws, pre-rendered once at one device scale
+ * into a single sheet, so a frame's tiles are plain 1:1 image copies with
+ * no colour, stroke or composite changes in between.
+ *
+ * Tiles are picked by tint: each player's colour for each shape (see
+ * {@link #paletteTint}) or one of the merge colours ({@link #PURPLE},
+ * {@link #YELLOW}, {@link #RED}, {@link #WHITE}). There are three kinds:
+ * solid cells, ghost outlines, and the half-transparent look of a falling
+ * piece still in the opponent's half.
+ */
+public final class TileAtlas {
+    public static final int PURPLE = 14, YELLOW = 15, RED = 16, WHITE = 17;
+    private static final int TINTS = 18;
+    private static final int FAR_VARIANTS = 5;  // own colour, then the four merge colours
+    private static final int SLOTS = TINTS * 2 + 14 * FAR_VARIANTS;
+    private static final int SHEET_COLS = 16;
+    private static final float FAR_ALPHA = 0.5f;
+    private static final int GHOST_ALPHA = 120;
+
+    private final int tile;         // natural tile size
+    private final double scale;     // device pixels per natural pixel
+    private final int cell;         // slot size in device pixels: tile plus the ghost's overhang
+    private final BufferedImage sheet;
+
+    // device-space origin of the natural space between begin() and end()
+    private AffineTransform saved;
+    private double originX, originY;
+
+    public TileAtlas(int tileSize, double scale, List<Color> p1Colors, List<Color> p2Colors,
+            GraphicsConfiguration gc) {
+        this.tile = tileSize;
+        this.scale = scale;
+        this.cell = (int) Math.ceil((tileSize + 2) * scale);
+        int w = SHEET_COLS * cell, h = (SLOTS + SHEET_COLS - 1) / SHEET_COLS * cell;
+        sheet = gc != null
+                ? gc.createCompatibleImage(w, h, Transparency.TRANSLUCENT)
+                : new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+
+        Color[] tints = new Color[TINTS];
+        for (int s = 0; s < 7; s++) {
+            tints[paletteTint(1, s)] = p1Colors.get(s);
+            tints[paletteTint(2, s)] = p2Colors.get(s);
+        }
+        tints[PURPLE] = new Color(0xAA, 0x00, 0xAA);
+        tints[YELLOW] = Color.YELLOW;
+        tints[RED] = Color.RED;
+        tints[WHITE] = Color.WHITE;
+
+        Graphics2D g = sheet.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        AffineTransform base = g.getTransform();
+        for (int t = 0; t < TINTS; t++) {
+            // solid: one filled square
+            at(g, base, solidSlot(t));
+            g.setColor(tints[t]);
+            g.fillRect(0, 0, tile - 1, tile - 1);
+
+            // ghost: a 2 px outline, which reaches past the tile on each side
+            at(g, base, ghostSlot(t));
+            Color c = tints[t];
+            g.setColor(new Color(c.getRed(), c.getGreen(), c.getBlue(), GHOST_ALPHA));
+            g.setStroke(new BasicStroke(2));
+            g.drawRect(0, 0, tile - 1, tile - 1);
+        }
+        for (int p = 0; p < 14; p++) {
+            for (int v = 0; v < FAR_VARIANTS; v++) {
+                // the piece's current colour, half covered by its own shape colour
+                at(g, base, farSlot(p, v));
+                g.setColor(tints[v == 0 ? p : PURPLE + v - 1]);
+                g.fillRect(0, 0, tile - 1, tile - 1);
+                g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, FAR_ALPHA));
+                g.setColor(tints[p]);
+                g.fillRect(0, 0, tile - 1, tile - 1);
+                g.setComposite(AlphaComposite.SrcOver);
+            }
+        }
+        g.dispose();
+    }
+
+    /** Point g's natural space at a slot, leaving room for the ghost border. */
+    private void at(Graphics2D g, AffineTransform base, int slot) {
+        g.setTransform(base);
+        g.translate(slot % SHEET_COLS * cell, slot / SHEET_COLS * cell);
+        g.scale(scale, scale);
+        g.translate(1, 1);
+    }
+
+    /** Tint of a player's own colour for a shape. */
+    public static int paletteTint(int playerId, int shape) {
+        return (playerId - 1) * 7 + shape;
+    }
+
+    private static int solidSlot(int tint) {
+        return tint;
+    }
+
+    private static int ghostSlot(int tint) {
+        return TINTS + tint;
+    }
+
+    private static int farSlot(int paletteTint, int variant) {
+        return 2 * TINTS + paletteTint * FAR_VARIANTS + variant;
+    }
+
+    /** Device pixels per natural pixel this atlas was drawn for. */
+    public double getScale() {
+        return scale;
+    }
+
+    // ─── Drawing ──────────────────────────────────────────────
+
+    /**
+     * Start blitting through g, whose transform maps natural board space
+     * to the device by a scale of {@link #getScale()} and a translation.
+     * Tile coordinates below are natural pixels; call {@link #end} after.
+     */
+    public void begin(Graphics2D g) {
+        saved = g.getTransform();
+        originX = saved.getTranslateX();
+        originY = saved.getTranslateY();
+        g.setTransform(new AffineTransform());
+    }
+
+    public void end(Graphics2D g) {
+        g.setTransform(saved);
+        saved = null;
+    }
+
+    /** A solid tile with its top-left corner at (x, y). */
+    public void solid(Graphics2D g, int tint, int x, int y) {
+        blit(g, solidSlot(tint), x, y);
+    }
+
+    public void ghost(Graphics2D g, int tint, int x, int y) {
+        blit(g, ghostSlot(tint), x, y);
+    }
+
+    /**
+     * A falling tile of playerId's shape whose current colour is tint: solid
+     * when near, half-transparent over its own colour when far.
+     */
+    public void falling(Graphics2D g, int playerId, int shape, int tint, boolean far, int x, int y) {
+        int own = paletteTint(playerId, shape);
+        if (!far) {
+            blit(g, solidSlot(own), x, y);
+            return;
+        }
+        int variant = tint >= PURPLE ? tint - PURPLE + 1 : 0;
+        blit(g, farSlot(own, variant), x, y);
+    }
+
+    private void blit(Graphics2D g, int slot, int x, int y) {
+        int sx = slot % SHEET_COLS * cell, sy = slot / SHEET_COLS * cell;
+        int dx = (int) Math.floor(originX + (x - 1) * scale);
+        int dy = (int) Math.floor(originY + (y - 1) * scale);
+        g.drawImage(sheet, dx, dy, dx + cell, dy + cell, sx, sy, sx + cell, sy + cell, null);
+    }
+}
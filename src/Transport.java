@@ -0,0 +1,26 @@
+package src;
+// Transport.java
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Unreliable datagram link to the other machine in a networked match:
+ * packets may be lost, duplicated or reordered, and {@link RollbackSession}
+ * copes with all three. Both calls are non-blocking and are only made from
+ * the simulation thread.
+ */
+public interface Transport extends Closeable {
+    /** Largest packet either side will send. */
+    int MAX_PACKET = 512;
+
+    /** Send the buffer's remaining bytes as one packet, or drop it. */
+    void send(ByteBuffer packet) throws IOException;
+
+    /**
+     * Copy the next waiting packet into buf (from its position) and return
+     * true, or return false at once if nothing has arrived.
+     */
+    boolean receive(ByteBuffer buf) throws IOException;
+}
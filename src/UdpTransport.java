@@ -0,0 +1,70 @@
+package src;
+// UdpTransport.java
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * {@link Transport} over a non-blocking UDP socket connected to one peer,
+ * so datagrams from anywhere else are filtered out by the OS.
+ */
+public class UdpTransport implements Transport {
+    private final DatagramChannel channel;
+
+    private UdpTransport(DatagramChannel channel) {
+        this.channel = channel;
+    }
+
+    /** Bind localPort (0 = any) and talk only to peer. */
+    public static UdpTransport open(int localPort, InetSocketAddress peer) throws IOException {
+        DatagramChannel ch = DatagramChannel.open();
+        try {
+            ch.bind(new InetSocketAddress(localPort));
+            ch.connect(peer);
+            ch.configureBlocking(false);
+        } catch (IOException ex) {
+            ch.close();
+            throw ex;
+        }
+        return new UdpTransport(ch);
+    }
+
+    /** "host:port" to an address, for command lines and properties. */
+    public static InetSocketAddress parseAddress(String hostPort) {
+        int colon = hostPort.lastIndexOf(':');
+        if (colon <= 0)
+            throw new IllegalArgumentException("expected host:port, got " + hostPort);
+        return new InetSocketAddress(hostPort.substring(0, colon),
+                Integer.parseInt(hostPort.substring(colon + 1)));
+    }
+
+    @Override
+    public void send(ByteBuffer packet) throws IOException {
+        try {
+            channel.write(packet);
+        } catch (PortUnreachableException ex) {
+            // the peer is not listening yet; keep sending until it is
+        }
+    }
+
+    @Override
+    public boolean receive(ByteBuffer buf) throws IOException {
+        try {
+            return channel.read(buf) > 0;
+        } catch (PortUnreachableException ex) {
+            return false;
+        }
+    }
+
+    public int getLocalPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}